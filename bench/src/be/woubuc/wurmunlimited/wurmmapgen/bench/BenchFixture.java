@@ -0,0 +1,60 @@
+package be.woubuc.wurmunlimited.wurmmapgen.bench;
+
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileIndex;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A generated Wurm map directory (top_layer.map and the sqlite databases) in a temp directory, for the benchmarks.
+ * Everything is generated from a fixed seed, so every run measures the same input.
+ */
+final class BenchFixture {
+	
+	private final Path directory;
+	private final WorldGenerator world;
+	
+	private BenchFixture(Path directory, WorldGenerator world) {
+		this.directory = directory;
+		this.world = world;
+	}
+	
+	/**
+	 * Generates a map directory in a temp directory
+	 * @param  mapSize   The number of Wurm tiles per side, a power of two
+	 * @param  villages  The number of villages, the number of other entities is based on it
+	 * @param  withDatabases  true to also generate the databases (requires the SQLite driver)
+	 * @return  The fixture
+	 */
+	static BenchFixture create(int mapSize, int villages, boolean withDatabases) throws IOException {
+		WorldGenerator world = new WorldGenerator();
+		world.mapSize = mapSize;
+		world.villages = villages;
+		
+		BenchFixture fixture = new BenchFixture(Files.createTempDirectory("wurmmapgen-bench"), world);
+		if (withDatabases) world.generate(fixture.directory);
+		else world.generateMap(fixture.directory);
+		return fixture;
+	}
+	
+	Path getDirectory() { return directory; }
+	Path getMapPath() { return directory.resolve("top_layer.map"); }
+	Path getDatabasePath() { return directory.resolve("sqlite"); }
+	
+	/**
+	 * Builds the tile index of the bridge parts, as the map generator loads it from wurmzones.db
+	 * @return  The bridge tiles
+	 */
+	TileIndex getBridgeTiles() {
+		return world.getBridgeTiles();
+	}
+	
+	/**
+	 * Removes the generated files
+	 */
+	void delete() throws IOException {
+		FileUtils.deleteDirectory(directory.toFile());
+	}
+}
@@ -0,0 +1,43 @@
+package be.woubuc.wurmunlimited.wurmmapgen.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs the benchmarks with the GC profiler, and stores the results as JSON in bench/results so runs can be compared.
+ * Accepts the regular JMH command line options, e.g. a benchmark name pattern or {@code -p mapTileSize=256}.
+ */
+public class BenchmarkRunner {
+	
+	public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+		final Path resultsPath = Paths.get("bench", "results");
+		Files.createDirectories(resultsPath);
+		
+		final String fileName = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+		final Path resultPath = resultsPath.resolve(fileName);
+		
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultPath.toString())
+				.shouldFailOnError(true)
+				.build();
+		
+		new Runner(options).run();
+		System.out.println("Results written to " + resultPath.toAbsolutePath());
+	}
+}
@@ -0,0 +1,114 @@
+package be.woubuc.wurmunlimited.wurmmapgen.bench;
+
+import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
+import be.woubuc.wurmunlimited.wurmmapgen.database.GuardTower;
+import be.woubuc.wurmunlimited.wurmmapgen.database.Portal;
+import be.woubuc.wurmunlimited.wurmmapgen.database.Village;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads each of the map layers from the fixture databases, the same way the data file generators do. Every invocation
+ * starts with new database connections, because the items are scanned only once per connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataLoadBenchmark {
+	
+	// Number of villages in the fixture, the other entities are scaled along (see BenchFixture)
+	@Param({ "100", "1000" })
+	public int villages;
+	
+	private BenchFixture fixture;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		fixture = BenchFixture.create(1024, villages, true);
+		
+		WurmMapGen.properties.wurmMapLocation = fixture.getDirectory().toFile();
+		WurmMapGen.properties.databaseSnapshot = "immutable";
+		quietly(() -> WurmMapGen.fileManager.load(false, true));
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		quietly(WurmMapGen.fileManager::unload);
+		fixture.delete();
+	}
+	
+	@Setup(Level.Invocation)
+	public void openDatabases() throws IOException {
+		quietly(() -> {
+			if (!WurmMapGen.db.openDatabaseConnections()) throw new IOException("Could not open the fixture databases");
+		});
+	}
+	
+	@TearDown(Level.Invocation)
+	public void closeDatabases() throws IOException {
+		quietly(WurmMapGen.db::closeDatabaseConnections);
+	}
+	
+	@Benchmark
+	public List<Village> loadVillages() {
+		return WurmMapGen.db.getVillages();
+	}
+	
+	@Benchmark
+	public int loadStructures(Blackhole blackhole) {
+		return WurmMapGen.db.forEachStructure(blackhole::consume);
+	}
+	
+	@Benchmark
+	public List<GuardTower> loadGuardTowers() {
+		return WurmMapGen.db.getGuardTowers();
+	}
+	
+	@Benchmark
+	public List<Portal> loadPortals() {
+		return WurmMapGen.db.getPortals();
+	}
+	
+	/**
+	 * Runs a task without its log output, which would otherwise be printed for every invocation
+	 */
+	private static void quietly(Task task) throws IOException {
+		final PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) { }
+		}));
+		
+		try {
+			task.run();
+		} finally {
+			System.setOut(out);
+		}
+	}
+	
+	@FunctionalInterface
+	private interface Task {
+		void run() throws IOException;
+	}
+}
@@ -0,0 +1,147 @@
+package be.woubuc.wurmunlimited.wurmmapgen.bench;
+
+import be.woubuc.wurmunlimited.wurmmapgen.PropertiesManager;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TerrainPalette;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileEncoder;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileRenderer;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.WurmMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes rendered image tiles to PNG, with each of the tile encoders. The compression level and filter only apply to
+ * the png encoder, so the imageio encoder is measured separately without them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileEncodeBenchmark {
+	
+	// Number of different tiles to encode, so the encoder doesn't see the same pixels every time
+	private static final int tileCount = 16;
+	
+	/**
+	 * The rendered tiles, only the encoding is measured
+	 */
+	@State(Scope.Benchmark)
+	public static class Tiles {
+		
+		@Param({ "256" })
+		public int mapTileSize;
+		
+		private int[][] pixels;
+		
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			PropertiesManager properties = new PropertiesManager();
+			properties.mapTileSize = mapTileSize;
+			
+			final BenchFixture fixture = BenchFixture.create(2048, 200, false);
+			final WurmMap map = WurmMap.open(fixture.getMapPath());
+			try {
+				final TileRenderer renderer = new TileRenderer(map, new TerrainPalette(properties), properties);
+				final int tilesPerSide = map.getSize() / mapTileSize;
+				
+				pixels = new int[tileCount][mapTileSize * mapTileSize];
+				for (int i = 0; i < tileCount; i++) {
+					final int tile = (i * 7) % (tilesPerSide * tilesPerSide);
+					renderer.render((tile % tilesPerSide) * mapTileSize, (tile / tilesPerSide) * mapTileSize, pixels[i]);
+				}
+			} finally {
+				map.close();
+				fixture.delete();
+			}
+		}
+	}
+	
+	/**
+	 * An encoder and its output buffer, shared by the encoder states
+	 */
+	public abstract static class Encoder {
+		
+		private TileEncoder encoder;
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream(256 * 1024);
+		private int nextTile = 0;
+		
+		void create(Tiles tiles, String mapTileEncoder, int mapTileCompression, String mapTileFilter) {
+			PropertiesManager properties = new PropertiesManager();
+			properties.mapTileSize = tiles.mapTileSize;
+			properties.mapTileEncoder = mapTileEncoder;
+			properties.mapTileCompression = mapTileCompression;
+			properties.mapTileFilter = mapTileFilter;
+			encoder = TileEncoder.create(properties);
+		}
+		
+		int encode(Tiles tiles) throws IOException {
+			output.reset();
+			encoder.encode(tiles.pixels[nextTile++ % tileCount], tiles.mapTileSize, output);
+			return output.size();
+		}
+		
+		void dispose() {
+			encoder.dispose();
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class PngEncoder extends Encoder {
+		
+		@Param({ "1", "6", "9" })
+		public int mapTileCompression;
+		
+		@Param({ "none", "adaptive" })
+		public String mapTileFilter;
+		
+		@Setup(Level.Trial)
+		public void setup(Tiles tiles) {
+			create(tiles, "png", mapTileCompression, mapTileFilter);
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			dispose();
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class ImageIoEncoder extends Encoder {
+		
+		@Setup(Level.Trial)
+		public void setup(Tiles tiles) {
+			// The ImageIO writer uses its own compression settings
+			create(tiles, "imageio", 0, "none");
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			dispose();
+		}
+	}
+	
+	@Benchmark
+	public int encodePng(Tiles tiles, PngEncoder encoder) throws IOException {
+		return encoder.encode(tiles);
+	}
+	
+	@Benchmark
+	public int encodeImageIo(Tiles tiles, ImageIoEncoder encoder) throws IOException {
+		return encoder.encode(tiles);
+	}
+}
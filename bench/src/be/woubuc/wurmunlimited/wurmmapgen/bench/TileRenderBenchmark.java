@@ -0,0 +1,98 @@
+package be.woubuc.wurmunlimited.wurmmapgen.bench;
+
+import be.woubuc.wurmunlimited.wurmmapgen.PropertiesManager;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TerrainPalette;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileIndex;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileRenderer;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.WurmMap;
+import com.wurmonline.mesh.Tiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the terrain of a single image tile, as the map generator does for every tile in the native zoom level. The
+ * rendered tile moves over the whole map, so the memory-mapped map file is read like it is in a real run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileRenderBenchmark {
+	
+	@Param({ "128", "256", "512" })
+	public int mapTileSize;
+	
+	@Param({ "true", "false" })
+	public boolean shading;
+	
+	@Param({ "true", "false" })
+	public boolean water;
+	
+	@Param({ "true", "false" })
+	public boolean bridges;
+	
+	private BenchFixture fixture;
+	private WurmMap map;
+	private TileRenderer renderer;
+	private TileIndex bridgeTiles;
+	private int bridgeColor;
+	
+	private int[] pixels;
+	private int tileCount;
+	private int nextTile = 0;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		fixture = BenchFixture.create(2048, 200, false);
+		map = WurmMap.open(fixture.getMapPath());
+		
+		PropertiesManager properties = new PropertiesManager();
+		properties.mapTileSize = mapTileSize;
+		properties.mapGenerateShading = shading;
+		properties.mapGenerateWater = water;
+		properties.mapGenerateBridges = bridges;
+		
+		final TerrainPalette palette = new TerrainPalette(properties);
+		renderer = new TileRenderer(map, palette, properties);
+		bridgeTiles = fixture.getBridgeTiles();
+		bridgeColor = palette.getColor(Tiles.TILE_TYPE_COBBLESTONE);
+		
+		pixels = new int[mapTileSize * mapTileSize];
+		tileCount = map.getSize() / mapTileSize;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		map.close();
+		fixture.delete();
+	}
+	
+	@Benchmark
+	public int[] renderTile() {
+		final int tile = nextTile++ % (tileCount * tileCount);
+		final int offsetX = (tile % tileCount) * mapTileSize;
+		final int offsetY = (tile / tileCount) * mapTileSize;
+		
+		renderer.render(offsetX, offsetY, pixels);
+		if (bridges) {
+			renderer.paint(offsetX, offsetY, pixels, bridgeTiles.getRegion(offsetX, offsetY, mapTileSize), bridgeColor);
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,647 @@
+package be.woubuc.wurmunlimited.wurmmapgen.bench;
+
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileIndex;
+import com.wurmonline.mesh.Tiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic Wurm world: a top_layer.map with noise-based terrain, and the sqlite databases with the
+ * villages, citizens, structures, bridges, guard towers and portals on it. The world is generated from a seed, so the
+ * same settings always give the same world.
+ *
+ * The generated directory can be used as the wurmMapLocation, to measure how the map generator scales with the size of
+ * the map and the number of entities on it.
+ */
+public final class WorldGenerator {
+	
+	public static final int minMapSize = 1024;
+	public static final int maxMapSize = 16384;
+	
+	// Template IDs of the items the map reads
+	private static final int guardTowerTemplateId = 384;
+	private static final int portalTemplateId = 603;
+	private static final int villageTokenTemplateId = 236;
+	
+	// First ID of each kind of entity, so the IDs never overlap
+	private static final long firstPlayerId = 0x100000000L;
+	private static final long firstTokenId = 0x200000000L;
+	private static final long firstItemId = 0x300000000L;
+	private static final long firstStructureId = 0x400000000L;
+	
+	// Number of rows inserted per batch
+	private static final int batchSize = 10000;
+	
+	/** Number of Wurm tiles per side, a power of two between 1024 and 16384 */
+	public int mapSize = 2048;
+	
+	/** Seed of the terrain and the placement of the entities */
+	public long seed = 0x57524d4dL;
+	
+	/** Number of villages, the counts below that are negative are scaled to this number */
+	public int villages = 200;
+	
+	/** Number of players, each of them a citizen of one of the villages */
+	public int citizens = -1;
+	
+	/** Number of structures, most of them in a village */
+	public int structures = -1;
+	
+	/** Total number of build tiles, divided over the structures */
+	public int buildTiles = -1;
+	
+	/** Total number of bridge parts, divided over bridges of 5 to 30 tiles */
+	public int bridgeParts = -1;
+	
+	/** Number of guard towers, near the villages */
+	public int guardTowers = -1;
+	
+	/** Number of portals */
+	public int portals = -1;
+	
+	/** Number of other items, which the map generator has to skip */
+	public int items = -1;
+	
+	// Number of each entity per village, for the counts that are not set
+	private static final int citizensPerVillage = 20;
+	private static final int structuresPerVillage = 10;
+	private static final int buildTilesPerVillage = 60;
+	private static final int bridgePartsPerVillage = 20;
+	private static final int guardTowersPerVillage = 2;
+	private static final int itemsPerVillage = 200;
+	
+	// Village areas (start x, start y, end x, end y), and the tiles of the bridge parts
+	private List<int[]> villageAreas;
+	private int[] bridgeX;
+	private int[] bridgeY;
+	
+	public static void main(String[] args) throws IOException {
+		WorldGenerator generator = new WorldGenerator();
+		Path directory = null;
+		
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "-h":
+					case "--help":
+						printUsage();
+						return;
+					
+					case "--size":
+						generator.mapSize = parseInt(args, ++i);
+						break;
+					
+					case "--seed":
+						generator.seed = Long.parseLong(getValue(args, ++i));
+						break;
+					
+					case "--villages":
+						generator.villages = parseInt(args, ++i);
+						break;
+					
+					case "--citizens":
+						generator.citizens = parseInt(args, ++i);
+						break;
+					
+					case "--structures":
+						generator.structures = parseInt(args, ++i);
+						break;
+					
+					case "--build-tiles":
+						generator.buildTiles = parseInt(args, ++i);
+						break;
+					
+					case "--bridge-parts":
+						generator.bridgeParts = parseInt(args, ++i);
+						break;
+					
+					case "--towers":
+						generator.guardTowers = parseInt(args, ++i);
+						break;
+					
+					case "--portals":
+						generator.portals = parseInt(args, ++i);
+						break;
+					
+					case "--items":
+						generator.items = parseInt(args, ++i);
+						break;
+					
+					default:
+						if (args[i].startsWith("-") || directory != null) {
+							throw new IllegalArgumentException("Unknown argument '" + args[i] + "'");
+						}
+						directory = Paths.get(args[i]);
+						break;
+				}
+			}
+			
+			if (directory == null) throw new IllegalArgumentException("No output directory given");
+			generator.validate();
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println();
+			printUsage();
+			System.exit(1);
+			return;
+		}
+		
+		final long startTime = System.currentTimeMillis();
+		generator.generate(directory);
+		
+		System.out.println("Generated a " + generator.mapSize + "x" + generator.mapSize + " world in " +
+				directory.toAbsolutePath() + " in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+	
+	private static void printUsage() {
+		System.out.println("Usage: WorldGenerator [options] <output directory>");
+		System.out.println();
+		System.out.println("Options");
+		System.out.println("      --size <tiles>          Tiles per side, a power of two from " + minMapSize + " to " + maxMapSize + " (default 2048)");
+		System.out.println("      --seed <number>         Seed of the generated world");
+		System.out.println("      --villages <count>      Number of villages (default 200)");
+		System.out.println("      --citizens <count>      Number of citizens (default " + citizensPerVillage + " per village)");
+		System.out.println("      --structures <count>    Number of structures (default " + structuresPerVillage + " per village)");
+		System.out.println("      --build-tiles <count>   Number of build tiles, over all structures (default " + buildTilesPerVillage + " per village)");
+		System.out.println("      --bridge-parts <count>  Number of bridge parts (default " + bridgePartsPerVillage + " per village)");
+		System.out.println("      --towers <count>        Number of guard towers (default " + guardTowersPerVillage + " per village)");
+		System.out.println("      --portals <count>       Number of portals (default 1 per 10 villages)");
+		System.out.println("      --items <count>         Number of other items (default " + itemsPerVillage + " per village)");
+	}
+	
+	private static String getValue(String[] args, int i) {
+		if (i >= args.length) throw new IllegalArgumentException("Missing value for '" + args[i - 1] + "'");
+		return args[i];
+	}
+	
+	private static int parseInt(String[] args, int i) {
+		final String value = getValue(args, i);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value '" + value + "' for '" + args[i - 1] + "'");
+		}
+	}
+	
+	/**
+	 * Checks the settings
+	 * @throws  IllegalArgumentException  If a setting is invalid
+	 */
+	public void validate() {
+		if (mapSize < minMapSize || mapSize > maxMapSize || Integer.bitCount(mapSize) != 1) {
+			throw new IllegalArgumentException("The map size must be a power of two from " + minMapSize + " to " + maxMapSize);
+		}
+		if (villages < 0) throw new IllegalArgumentException("The number of villages cannot be negative");
+	}
+	
+	/**
+	 * Generates top_layer.map and the databases
+	 * @param  directory  The directory to write the files to, the databases are written to its sqlite subdirectory
+	 */
+	public void generate(Path directory) throws IOException {
+		generateMap(directory);
+		
+		final Path databasePath = directory.resolve("sqlite");
+		Files.createDirectories(databasePath);
+		try {
+			writeDatabases(databasePath);
+		} catch (SQLException e) {
+			throw new IOException("Could not write the databases: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Generates only top_layer.map
+	 * @param  directory  The directory to write the file to
+	 */
+	public void generateMap(Path directory) throws IOException {
+		validate();
+		layout();
+		
+		Files.createDirectories(directory);
+		writeMap(directory.resolve("top_layer.map"));
+	}
+	
+	/**
+	 * Builds the tile index of the bridge parts, as the map generator loads it from wurmzones.db
+	 * @return  The bridge tiles
+	 */
+	public TileIndex getBridgeTiles() {
+		if (bridgeX == null) throw new IllegalStateException("The world has not been generated yet");
+		
+		TileIndex.Builder tiles = new TileIndex.Builder(mapSize);
+		for (int i = 0; i < bridgeX.length; i++) tiles.add(bridgeX[i], bridgeY[i]);
+		return tiles.build();
+	}
+	
+	/**
+	 * Gets a count, scaled to the number of villages if it is not set
+	 */
+	private int getCount(int count, int perVillage) {
+		return count >= 0 ? count : villages * perVillage;
+	}
+	
+	/**
+	 * Places the villages and the bridges, which are needed both for the map and for the databases
+	 */
+	private void layout() {
+		final Random random = new Random(seed);
+		
+		villageAreas = new ArrayList<>(villages);
+		for (int i = 0; i < villages; i++) {
+			final int size = 11 + random.nextInt(40);
+			
+			// Prefer a spot on land, but give up after a few tries
+			int x = 0;
+			int y = 0;
+			for (int attempt = 0; attempt < 20; attempt++) {
+				x = random.nextInt(mapSize - size);
+				y = random.nextInt(mapSize - size);
+				if (getHeight(x + size / 2, y + size / 2) > 20) break;
+			}
+			villageAreas.add(new int[] { x, y, x + size - 1, y + size - 1 });
+		}
+		
+		final int parts = getCount(bridgeParts, bridgePartsPerVillage);
+		bridgeX = new int[parts];
+		bridgeY = new int[parts];
+		for (int part = 0; part < parts; ) {
+			final int length = Math.min(5 + random.nextInt(26), parts - part);
+			final boolean horizontal = random.nextBoolean();
+			final int x = random.nextInt(mapSize - (horizontal ? length : 0));
+			final int y = random.nextInt(mapSize - (horizontal ? 0 : length));
+			
+			for (int i = 0; i < length; i++, part++) {
+				bridgeX[part] = horizontal ? x + i : x;
+				bridgeY[part] = horizontal ? y : y + i;
+			}
+		}
+	}
+	
+	/**
+	 * Writes top_layer.map, one row at a time
+	 */
+	private void writeMap(Path path) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(1024);
+		header.put(9, (byte) Integer.numberOfTrailingZeros(mapSize));
+		
+		// The villages, by the block of 64 rows they cover
+		final List<List<int[]>> villageBlocks = new ArrayList<>();
+		for (int block = 0; block < mapSize / 64; block++) villageBlocks.add(new ArrayList<>());
+		for (int[] area : villageAreas) {
+			for (int block = area[1] / 64; block <= area[3] / 64; block++) villageBlocks.get(block).add(area);
+		}
+		
+		final byte[] villageTypes = new byte[mapSize];
+		int progress = 0;
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(header);
+			
+			final ByteBuffer row = ByteBuffer.allocate(mapSize * 4);
+			for (int y = 0; y < mapSize; y++) {
+				fillVillageTypes(villageTypes, villageBlocks.get(y / 64), y);
+				
+				row.clear();
+				for (int x = 0; x < mapSize; x++) {
+					final int height = getHeight(x, y);
+					final byte type = (villageTypes[x] != 0 && height >= 0) ? villageTypes[x] : getType(x, y, height);
+					row.putInt(((type & 0xff) << 24) | (height & 0xffff));
+				}
+				row.flip();
+				while (row.hasRemaining()) channel.write(row);
+				
+				// Large maps take a while, so show the progress every 10%
+				if (mapSize >= 4096 && (y + 1) * 10 / mapSize > progress) {
+					progress = (y + 1) * 10 / mapSize;
+					System.out.println("      Writing top_layer.map: " + (progress * 10) + "%");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Fills in the tile types of the villages on a row: a cobblestone road through the middle, and some fields and
+	 * packed dirt around it. Tiles outside the villages are left at 0.
+	 */
+	private void fillVillageTypes(byte[] types, List<int[]> areas, int y) {
+		Arrays.fill(types, (byte) 0);
+		
+		for (int[] area : areas) {
+			if (y < area[1] || y > area[3]) continue;
+			
+			final int centerX = (area[0] + area[2]) / 2;
+			final int centerY = (area[1] + area[3]) / 2;
+			for (int x = area[0]; x <= area[2]; x++) {
+				final int detail = hash(x, y, 300) % 100;
+				if (x == centerX || y == centerY) types[x] = Tiles.TILE_TYPE_COBBLESTONE;
+				else if (detail < 20) types[x] = Tiles.TILE_TYPE_FIELD;
+				else if (detail < 35) types[x] = Tiles.TILE_TYPE_DIRT_PACKED;
+				else types[x] = Tiles.TILE_TYPE_GRASS;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the height of a tile: rolling hills and mountains, with lakes and seas below 0
+	 */
+	private int getHeight(int x, int y) {
+		final double elevation = fractalNoise(x, y, 512, 6, 0);
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) (elevation * 2500 + 450)));
+	}
+	
+	/**
+	 * Gets the tile type, from the height and the moisture of the area
+	 */
+	private byte getType(int x, int y, int height) {
+		final int detail = hash(x, y, 200) % 100;
+		
+		if (height < 0) {
+			if (height > -40) return Tiles.TILE_TYPE_SAND;
+			return detail < 5 ? Tiles.TILE_TYPE_CLAY : Tiles.TILE_TYPE_DIRT;
+		}
+		if (height < 15) return Tiles.TILE_TYPE_SAND;
+		if (height > 1600) return Tiles.TILE_TYPE_ROCK;
+		if (height > 1300) return detail < 60 ? Tiles.TILE_TYPE_ROCK : Tiles.TILE_TYPE_STEPPE;
+		
+		final double moisture = fractalNoise(x, y, 256, 3, 100);
+		if (moisture > 0.3 && height < 80) return Tiles.TILE_TYPE_MARSH;
+		if (moisture > 0.15) return detail < 80 ? Tiles.TILE_TYPE_TREE : Tiles.TILE_TYPE_BUSH;
+		if (moisture < -0.25) return detail < 5 ? Tiles.TILE_TYPE_DIRT : Tiles.TILE_TYPE_STEPPE;
+		
+		if (detail < 6) return Tiles.TILE_TYPE_TREE;
+		if (detail < 9) return Tiles.TILE_TYPE_DIRT;
+		return Tiles.TILE_TYPE_GRASS;
+	}
+	
+	/**
+	 * Sums several octaves of value noise
+	 * @param  wavelength  The size of the largest features, in tiles
+	 * @param  octaves     The number of octaves, each with half the wavelength of the previous one
+	 * @param  salt        Added to the seed, so different kinds of noise are not the same
+	 * @return  The noise, between -1 and 1
+	 */
+	private double fractalNoise(int x, int y, int wavelength, int octaves, int salt) {
+		double value = 0;
+		double amplitude = 1;
+		double total = 0;
+		
+		for (int octave = 0; octave < octaves; octave++) {
+			value += valueNoise((double) x / wavelength, (double) y / wavelength, salt + octave) * amplitude;
+			total += amplitude;
+			amplitude /= 2;
+			wavelength = Math.max(1, wavelength / 2);
+		}
+		return value / total;
+	}
+	
+	private double valueNoise(double x, double y, int salt) {
+		final int x0 = (int) Math.floor(x);
+		final int y0 = (int) Math.floor(y);
+		final double fx = x - x0;
+		final double fy = y - y0;
+		
+		// Smoothstep, so the edges between the lattice cells don't show
+		final double sx = fx * fx * (3 - 2 * fx);
+		final double sy = fy * fy * (3 - 2 * fy);
+		
+		final double top = lerp(lattice(x0, y0, salt), lattice(x0 + 1, y0, salt), sx);
+		final double bottom = lerp(lattice(x0, y0 + 1, salt), lattice(x0 + 1, y0 + 1, salt), sx);
+		return lerp(top, bottom, sy);
+	}
+	
+	private double lattice(int x, int y, int salt) {
+		return (hash(x, y, salt) & 0xffff) / 32767.5 - 1;
+	}
+	
+	private static double lerp(double a, double b, double t) {
+		return a + (b - a) * t;
+	}
+	
+	private int hash(int x, int y, int salt) {
+		int hash = x * 374761393 + y * 668265263 + (int) (seed ^ (seed >>> 32)) * 144665 + salt * 1013904223;
+		hash = (hash ^ (hash >>> 13)) * 1274126177;
+		return (hash ^ (hash >>> 16)) & 0x7fffffff;
+	}
+	
+	/**
+	 * Writes the tables and columns the map generator reads from each database
+	 */
+	private void writeDatabases(Path databasePath) throws SQLException, IOException {
+		final Random random = new Random(seed + 1);
+		
+		final int citizenCount = getCount(citizens, citizensPerVillage);
+		final int structureCount = getCount(structures, structuresPerVillage);
+		final int buildTileCount = getCount(buildTiles, buildTilesPerVillage);
+		final int towerCount = getCount(guardTowers, guardTowersPerVillage);
+		final int portalCount = portals >= 0 ? portals : Math.max(1, villages / 10);
+		final int itemCount = getCount(items, itemsPerVillage);
+		
+		// Every village has a mayor, and every structure and tower an owner
+		final int playerCount = Math.max(1, Math.max(citizenCount, villages));
+		
+		for (String name : new String[] { "wurmplayers.db", "wurmitems.db", "wurmzones.db", "modsupport.db" }) {
+			Files.deleteIfExists(databasePath.resolve(name));
+		}
+		
+		try (Connection connection = open(databasePath, "wurmplayers.db")) {
+			execute(connection, "create table `PLAYERS` (`WURMID` integer primary key, `NAME` varchar(40))");
+			try (PreparedStatement insert = connection.prepareStatement("insert into `PLAYERS` values (?, ?)")) {
+				for (int i = 0; i < playerCount; i++) {
+					insert.setLong(1, firstPlayerId + i);
+					insert.setString(2, "Player" + i);
+					addBatch(insert, i);
+				}
+				insert.executeBatch();
+			}
+			connection.commit();
+		}
+		
+		try (Connection connection = open(databasePath, "wurmitems.db")) {
+			execute(connection, "create table `ITEMS` (`WURMID` integer primary key, `TEMPLATEID` integer, `NAME` varchar(40), " +
+					"`LASTOWNERID` integer, `POSX` float, `POSY` float, `QUALITYLEVEL` float, `DAMAGE` float)");
+			execute(connection, "create index `ITEMS_TEMPLATE` on `ITEMS` (`TEMPLATEID`)");
+			
+			try (PreparedStatement insert = connection.prepareStatement("insert into `ITEMS` values (?, ?, ?, ?, ?, ?, ?, ?)")) {
+				int row = 0;
+				
+				// Village tokens are in the middle of the village
+				for (int i = 0; i < villages; i++) {
+					final int[] area = villageAreas.get(i);
+					insertItem(insert, firstTokenId + i, villageTokenTemplateId, "settlement token", 0,
+							(area[0] + area[2]) / 2, (area[1] + area[3]) / 2, random, row++);
+				}
+				
+				long itemId = firstItemId;
+				for (int i = 0; i < towerCount; i++) {
+					final int[] tile = getTileNearVillage(random, 30);
+					insertItem(insert, itemId++, guardTowerTemplateId, "guard tower", firstPlayerId + random.nextInt(playerCount),
+							tile[0], tile[1], random, row++);
+				}
+				for (int i = 0; i < portalCount; i++) {
+					insertItem(insert, itemId++, portalTemplateId, "portal " + i, 0,
+							random.nextInt(mapSize), random.nextInt(mapSize), random, row++);
+				}
+				for (int i = 0; i < itemCount; i++) {
+					insertItem(insert, itemId++, 1 + random.nextInt(200), "item", 0,
+							random.nextInt(mapSize), random.nextInt(mapSize), random, row++);
+				}
+				insert.executeBatch();
+			}
+			connection.commit();
+		}
+		
+		try (Connection connection = open(databasePath, "wurmzones.db")) {
+			execute(connection, "create table `VILLAGES` (`ID` integer primary key, `NAME` varchar(40), `MAYOR` varchar(40), " +
+					"`DEVISE` varchar(200), `STARTX` integer, `STARTY` integer, `ENDX` integer, `ENDY` integer, `TOKEN` integer, " +
+					"`PERMANENT` tinyint, `DISBANDED` tinyint)");
+			execute(connection, "create table `CITIZENS` (`WURMID` integer, `VILLAGEID` integer)");
+			execute(connection, "create table `STRUCTURES` (`WURMID` integer primary key, `OWNERID` integer, `NAME` varchar(40), `FINISHED` tinyint)");
+			execute(connection, "create table `BUILDTILES` (`STRUCTUREID` integer, `TILEX` integer, `TILEY` integer)");
+			execute(connection, "create table `BRIDGEPARTS` (`TILEX` integer, `TILEY` integer)");
+			
+			try (PreparedStatement insert = connection.prepareStatement("insert into `VILLAGES` values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)")) {
+				for (int i = 0; i < villages; i++) {
+					final int[] area = villageAreas.get(i);
+					insert.setInt(1, i + 1);
+					insert.setString(2, "Village " + i);
+					insert.setString(3, "Player" + i);
+					insert.setString(4, "Motto of village " + i);
+					insert.setInt(5, area[0]);
+					insert.setInt(6, area[1]);
+					insert.setInt(7, area[2]);
+					insert.setInt(8, area[3]);
+					insert.setLong(9, firstTokenId + i);
+					insert.setInt(10, random.nextInt(20) == 0 ? 1 : 0);
+					addBatch(insert, i);
+				}
+				insert.executeBatch();
+			}
+			
+			// Player i lives in village i, so the mayors are citizens of their own village
+			if (villages > 0) {
+				try (PreparedStatement insert = connection.prepareStatement("insert into `CITIZENS` values (?, ?)")) {
+					for (int i = 0; i < citizenCount; i++) {
+						insert.setLong(1, firstPlayerId + i);
+						insert.setInt(2, 1 + i % villages);
+						addBatch(insert, i);
+					}
+					insert.executeBatch();
+				}
+			}
+			
+			try (PreparedStatement insertStructure = connection.prepareStatement("insert into `STRUCTURES` values (?, ?, ?, ?)");
+				 PreparedStatement insertTile = connection.prepareStatement("insert into `BUILDTILES` values (?, ?, ?)")) {
+				int tileRow = 0;
+				for (int i = 0; i < structureCount; i++) {
+					final long structureId = firstStructureId + i;
+					insertStructure.setLong(1, structureId);
+					insertStructure.setLong(2, firstPlayerId + random.nextInt(playerCount));
+					insertStructure.setString(3, "House " + i);
+					insertStructure.setInt(4, random.nextInt(10) == 0 ? 0 : 1);
+					addBatch(insertStructure, i);
+					
+					// The build tiles are divided evenly, and laid out as a (nearly) square building
+					final int tiles = buildTileCount / structureCount + (i < buildTileCount % structureCount ? 1 : 0);
+					if (tiles == 0) continue;
+					
+					final int width = Math.min(mapSize, (int) Math.ceil(Math.sqrt(tiles)));
+					final int height = (tiles + width - 1) / width;
+					final int[] tile = getTileNearVillage(random, 0);
+					final int x = Math.min(tile[0], mapSize - width);
+					final int y = Math.min(tile[1], mapSize - height);
+					
+					for (int t = 0; t < tiles; t++) {
+						insertTile.setLong(1, structureId);
+						insertTile.setInt(2, x + t % width);
+						insertTile.setInt(3, y + t / width);
+						addBatch(insertTile, tileRow++);
+					}
+				}
+				insertStructure.executeBatch();
+				insertTile.executeBatch();
+			}
+			
+			try (PreparedStatement insert = connection.prepareStatement("insert into `BRIDGEPARTS` values (?, ?)")) {
+				for (int i = 0; i < bridgeX.length; i++) {
+					insert.setInt(1, bridgeX[i]);
+					insert.setInt(2, bridgeY[i]);
+					addBatch(insert, i);
+				}
+				insert.executeBatch();
+			}
+			connection.commit();
+		}
+		
+		try (Connection connection = open(databasePath, "modsupport.db")) {
+			execute(connection, "create table `IDS` (`ID` integer primary key, `NAME` varchar(200))");
+			connection.commit();
+		}
+	}
+	
+	/**
+	 * Picks a random tile in or around a random village, or anywhere on the map if there are no villages
+	 * @param  random  The random generator
+	 * @param  margin  The number of tiles around the village the tile can be in
+	 * @return  The tile x and y
+	 */
+	private int[] getTileNearVillage(Random random, int margin) {
+		if (villageAreas.isEmpty()) return new int[] { random.nextInt(mapSize), random.nextInt(mapSize) };
+		
+		final int[] area = villageAreas.get(random.nextInt(villageAreas.size()));
+		final int x = area[0] - margin + random.nextInt(area[2] - area[0] + 1 + margin * 2);
+		final int y = area[1] - margin + random.nextInt(area[3] - area[1] + 1 + margin * 2);
+		return new int[] { Math.max(0, Math.min(mapSize - 1, x)), Math.max(0, Math.min(mapSize - 1, y)) };
+	}
+	
+	private void insertItem(PreparedStatement insert, long id, int templateId, String name, long ownerId,
+							int tileX, int tileY, Random random, int row) throws SQLException {
+		insert.setLong(1, id);
+		insert.setInt(2, templateId);
+		insert.setString(3, name);
+		insert.setLong(4, ownerId);
+		
+		// Item positions are in metres, 4 per tile
+		insert.setFloat(5, tileX * 4 + random.nextFloat() * 4);
+		insert.setFloat(6, tileY * 4 + random.nextFloat() * 4);
+		insert.setFloat(7, 1 + random.nextInt(99));
+		insert.setFloat(8, random.nextInt(50));
+		addBatch(insert, row);
+	}
+	
+	/**
+	 * Adds a row to the batch, and executes the batch when it is full
+	 */
+	private static void addBatch(PreparedStatement statement, int row) throws SQLException {
+		statement.addBatch();
+		if (row % batchSize == batchSize - 1) statement.executeBatch();
+	}
+	
+	private static Connection open(Path databasePath, String name) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath.resolve(name));
+		connection.setAutoCommit(false);
+		return connection;
+	}
+	
+	private static void execute(Connection connection, String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+}
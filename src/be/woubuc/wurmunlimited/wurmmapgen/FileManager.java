@@ -7,6 +7,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
 
 public class FileManager {
 	
@@ -28,37 +33,99 @@ public class FileManager {
 	}
 	
 	/**
-	 * Loads all required files and makes copies in a temp directory
+	 * Loads all required files and snapshots them in a temp directory. Only the databases needed by the enabled map
+	 * layers are loaded.
 	 */
 	public void load() throws IOException {
+		load(true, true);
+	}
+	
+	/**
+	 * Loads the files required to generate part of the output and snapshots them in a temp directory
+	 * @param  tiles  true if the map tiles will be generated
+	 * @param  data   true if the data files will be generated
+	 */
+	public void load(boolean tiles, boolean data) throws IOException {
 		Logger.title("Create temp file copies");
 		
 		Files.createDirectories(tempDir);
 		Logger.details("Created directory " + tempDir.toString());
 		
+		final PropertiesManager properties = WurmMapGen.properties;
+		final boolean needsZones = (data && (properties.showDeeds || properties.showStructures))
+				|| (tiles && (properties.mapGenerateBridges || properties.mapGenerateStructures));
+		final boolean needsItems = data && (properties.showDeeds || properties.showGuardTowers || properties.showPortals);
+		final boolean needsPlayers = data && (properties.showDeeds || properties.showStructures || properties.showGuardTowers);
+		
 		Logger.details("Loading required files");
-		map_topLayer = new WurmFile(Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "top_layer.map"));
+		map_topLayer = new WurmFile(getMapPath());
 		
-		db_wurmZones = new DatabaseFile(Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "sqlite", "wurmzones.db"));
-		db_wurmItems = new DatabaseFile(Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "sqlite", "wurmitems.db"));
-		db_wurmPlayers = new DatabaseFile(Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "sqlite", "wurmplayers.db"));
+		final Path sqlitePath = getDatabasePath();
+		db_wurmZones = needsZones ? new DatabaseFile(sqlitePath.resolve("wurmzones.db")) : null;
+		db_wurmItems = needsItems ? new DatabaseFile(sqlitePath.resolve("wurmitems.db")) : null;
+		db_wurmPlayers = needsPlayers ? new DatabaseFile(sqlitePath.resolve("wurmplayers.db")) : null;
 		
-		Path modSupportPath = Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "sqlite", "modsupport.db");
-		if (modSupportPath.toFile().exists()) {
+		// Modded tower templates are only needed for the guard tower layer
+		Path modSupportPath = sqlitePath.resolve("modsupport.db");
+		db_modSupport = null;
+		if (data && properties.showGuardTowers && modSupportPath.toFile().exists()) {
 			db_modSupport = new DatabaseFile(modSupportPath);
 		}
 		
 		Logger.details("Copying files to temp directory");
-		map_topLayer = map_topLayer.copyToDirectory(tempDir);
-		db_wurmZones = db_wurmZones.copyToDirectory(tempDir);
-		db_wurmItems = db_wurmItems.copyToDirectory(tempDir);
-		db_wurmPlayers = db_wurmPlayers.copyToDirectory(tempDir);
 		
-		if (db_modSupport != null) {
-			db_modSupport = db_modSupport.copyToDirectory(tempDir);
+		// The map file is only read through a read-only mapping, so it can be used in place unless the server is running.
+		// If no tiles are generated, only the size of the map is needed.
+		if (tiles && properties.mapSnapshot) {
+			map_topLayer = map_topLayer.copyToDirectory(tempDir);
+		} else {
+			Logger.details("-> " + map_topLayer.getName() + " (not copied, read in place)");
 		}
 		
-		Logger.ok("Temp files copied");
+		final long startTime = System.currentTimeMillis();
+		db_wurmZones = snapshot(db_wurmZones);
+		db_wurmItems = snapshot(db_wurmItems);
+		db_wurmPlayers = snapshot(db_wurmPlayers);
+		db_modSupport = snapshot(db_modSupport);
+		
+		Logger.ok("Temp files copied, databases snapshotted in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+	
+	/**
+	 * Gets the path of the Wurm map file
+	 * @return  The path of top_layer.map in the Wurm map directory
+	 */
+	public Path getMapPath() {
+		return Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "top_layer.map");
+	}
+	
+	/**
+	 * Gets the directory of the Wurm databases
+	 * @return  The path of the sqlite directory in the Wurm map directory
+	 */
+	public Path getDatabasePath() {
+		return Paths.get(WurmMapGen.properties.wurmMapLocation.getAbsolutePath(), "sqlite");
+	}
+	
+	/**
+	 * Snapshots a database in the temp directory, using the configured snapshot mode
+	 * @param  file  The database file, or null if the database is not needed
+	 * @return  The file to read the database from
+	 */
+	private DatabaseFile snapshot(DatabaseFile file) throws IOException {
+		if (file == null) return null;
+		
+		switch (WurmMapGen.properties.databaseSnapshot) {
+			case "immutable":
+				Logger.details("-> " + file.getName() + " (not copied, read in place)");
+				return file;
+			
+			case "copy":
+				return file.copyToDirectory(tempDir);
+			
+			default:
+				return file.backupToDirectory(tempDir);
+		}
 	}
 	
 	/**
@@ -108,6 +175,47 @@ public class FileManager {
 			
 			return dest;
 		}
+		
+		/**
+		 * Takes a consistent snapshot of the database with {@code VACUUM INTO}. Unlike copying the file, this includes
+		 * changes that are still in the write-ahead log and does not block the server. The snapshot is written in a
+		 * single read transaction, so it is not restarted when the server writes to the database in the meantime (the
+		 * online backup API restarts for every write, which may never finish on a busy database).
+		 * @param  destination  The destination directory
+		 */
+		DatabaseFile backupToDirectory(Path destination) throws IOException {
+			final long startTime = System.currentTimeMillis();
+			
+			if (!this.exists()) throw new IOException("File not found: " + this.getName());
+			DatabaseFile dest = new DatabaseFile(Paths.get(destination.toString(), this.getName()));
+			
+			// VACUUM INTO refuses to overwrite an existing file
+			Files.deleteIfExists(dest.toPath());
+			
+			Properties config = new Properties();
+			config.setProperty("open_mode", "1"); // read-only
+			
+			try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.getAbsolutePath(), config);
+				 Statement statement = connection.createStatement()) {
+				
+				statement.executeUpdate("VACUUM INTO '" + dest.getAbsolutePath().replace("'", "''") + "'");
+			} catch (SQLException e) {
+				throw new IOException("Could not snapshot " + this.getName() + ": " + e.getMessage(), e);
+			}
+			
+			// The snapshot is read through read-only connections, which cannot set up a write-ahead log
+			try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dest.getAbsolutePath());
+				 Statement statement = connection.createStatement()) {
+				
+				statement.execute("PRAGMA journal_mode = DELETE");
+			} catch (SQLException e) {
+				throw new IOException("Could not snapshot " + this.getName() + ": " + e.getMessage(), e);
+			}
+			
+			Logger.details("-> " + this.getName() + " (" + (dest.length() / 1024) + " KB in "
+					+ (System.currentTimeMillis() - startTime) + " ms)");
+			return dest;
+		}
 	}
 	
 	/**
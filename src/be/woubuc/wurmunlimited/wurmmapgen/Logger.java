@@ -2,6 +2,9 @@ package be.woubuc.wurmunlimited.wurmmapgen;
 
 public class Logger {
 	
+	// Output of phases that run in the background, printed when the phase is done
+	private static final ThreadLocal<StringBuilder> buffer = new ThreadLocal<>();
+	
 	/**
 	 * Logs an info message to stdout
 	 * @param  message    The message
@@ -9,7 +12,9 @@ public class Logger {
 	 */
 	public static void info(String message, boolean isVerbose) {
 		if (!isVerbose || WurmMapGen.verbose) {
-			System.out.println(message);
+			final StringBuilder output = buffer.get();
+			if (output != null) output.append(message).append(System.lineSeparator());
+			else System.out.println(message);
 		}
 	}
 	
@@ -97,4 +102,21 @@ public class Logger {
 	public static void custom(String label, String message) {
 		custom(label, message, true);
 	}
+	
+	/**
+	 * Starts collecting the messages logged by the current thread instead of printing them
+	 */
+	static void startBuffer() {
+		buffer.set(new StringBuilder());
+	}
+	
+	/**
+	 * Stops collecting the messages logged by the current thread
+	 * @return  The collected messages
+	 */
+	static String endBuffer() {
+		final StringBuilder output = buffer.get();
+		buffer.remove();
+		return output == null ? "" : output.toString();
+	}
 }
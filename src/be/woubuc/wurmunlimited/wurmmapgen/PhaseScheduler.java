@@ -0,0 +1,148 @@
+package be.woubuc.wurmunlimited.wurmmapgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the phases of the map generation concurrently. Background phases run on their own threads and their output is
+ * printed when all phases are done, so it doesn't get mixed up with the progress of the foreground phase.
+ */
+public final class PhaseScheduler {
+	
+	/**
+	 * A phase of the map generation
+	 */
+	@FunctionalInterface
+	public interface Phase {
+		/**
+		 * Runs the phase
+		 * @return  true if the phase completed successfully
+		 */
+		boolean run() throws Exception;
+	}
+	
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "WurmMapGen phase");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final List<String> names = new ArrayList<>();
+	private final List<Future<PhaseResult>> results = new ArrayList<>();
+	private final List<PhaseResult> foregroundResults = new ArrayList<>();
+	
+	/**
+	 * Starts a phase in the background
+	 * @param  name   The name of the phase
+	 * @param  phase  The phase
+	 */
+	public void submit(String name, Phase phase) {
+		submit(name, phase, new ArrayList<>());
+	}
+	
+	/**
+	 * Starts a phase in the background once all phases that were submitted before it are done
+	 * @param  name   The name of the phase
+	 * @param  phase  The phase
+	 */
+	public void submitAfter(String name, Phase phase) {
+		submit(name, phase, new ArrayList<>(results));
+	}
+	
+	private void submit(String name, Phase phase, List<Future<PhaseResult>> previous) {
+		names.add(name);
+		results.add(executor.submit(() -> {
+			for (Future<PhaseResult> future : previous) future.get();
+			
+			Logger.startBuffer();
+			try {
+				final PhaseResult result = execute(name, phase);
+				result.output = Logger.endBuffer();
+				return result;
+			} finally {
+				Logger.endBuffer();
+			}
+		}));
+	}
+	
+	/**
+	 * Runs a phase on the current thread, while the background phases keep running
+	 * @param  name   The name of the phase
+	 * @param  phase  The phase
+	 * @return  true if the phase completed successfully
+	 */
+	public boolean run(String name, Phase phase) {
+		final PhaseResult result = execute(name, phase);
+		result.name = name;
+		foregroundResults.add(result);
+		return result.success;
+	}
+	
+	/**
+	 * Waits for all background phases to finish and prints their output
+	 * @return  true if all phases completed successfully
+	 */
+	public boolean await() {
+		boolean success = true;
+		List<PhaseResult> finished = new ArrayList<>(foregroundResults);
+		
+		for (int i = 0; i < results.size(); i++) {
+			PhaseResult result;
+			try {
+				result = results.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				Logger.error(names.get(i) + " failed: " + e.getMessage());
+				result = new PhaseResult(0, false);
+			}
+			
+			result.name = names.get(i);
+			if (result.output != null) System.out.print(result.output);
+			finished.add(result);
+			success &= result.success;
+		}
+		
+		executor.shutdown();
+		
+		Logger.title("Phases");
+		for (PhaseResult result : finished) {
+			Logger.details(result.name + ": " + result.duration + " ms" + (result.success ? "" : " (failed)"));
+		}
+		
+		return success;
+	}
+	
+	/**
+	 * Runs a phase and times it
+	 */
+	private static PhaseResult execute(String name, Phase phase) {
+		final long startTime = System.currentTimeMillis();
+		
+		boolean success;
+		try {
+			success = phase.run();
+		} catch (Exception e) {
+			Logger.error(name + " failed: " + e.getMessage());
+			if (WurmMapGen.debug) e.printStackTrace();
+			success = false;
+		}
+		
+		return new PhaseResult(System.currentTimeMillis() - startTime, success);
+	}
+	
+	private static final class PhaseResult {
+		
+		private final long duration;
+		private final boolean success;
+		private String name;
+		private String output;
+		
+		private PhaseResult(long duration, boolean success) {
+			this.duration = duration;
+			this.success = success;
+		}
+	}
+}
@@ -13,6 +13,8 @@ public class PropertiesManager {
 	public boolean enableRealtimeMarkers = false;
 	public String rmiHost = "localhost";
 	public String rmiPort = "8080";
+	public String realtimeFeed = "php";
+	public int realtimeInterval = 10;
 	
 	public int markerType = 2;
 	
@@ -21,6 +23,7 @@ public class PropertiesManager {
 	public Boolean showGuardTowers = true;
 	public Boolean showStructures = true;
 	public boolean showPortals = true;
+	public int dataChunkSize = 512;
 	
 	public int mapGeneratorThreads = 2;
 	public int mapTileSize = 256;
@@ -30,9 +33,21 @@ public class PropertiesManager {
 	public Boolean mapShadePaths = true;
 	public Boolean mapGenerateWater = true;
 	public Boolean mapGenerateBridges = true;
+	public Boolean mapGenerateStructures = true;
+	public Boolean mapSnapshot = true;
+	public String databaseSnapshot = "backup";
+	
+	public String mapTileEncoder = "png";
+	public int mapTileCompression = 6;
+	public String mapTileFilter = "adaptive";
+	public String mapOutputMode = "files";
 	
 	public File wurmMapLocation;
 	public File saveLocation;
+	public boolean stagedOutput = false;
+	public int watchDelay = 10;
+	public int servePort = 8000;
+	public int serveCacheSize = 64;
 	
 	/**
 	 * Loads the properties from the file WurmMapGen.properties
@@ -69,6 +84,8 @@ public class PropertiesManager {
 		this.enableRealtimeMarkers = Boolean.parseBoolean(properties.getProperty("enableRealtimeMarkers", Boolean.toString(this.enableRealtimeMarkers)));
 		this.rmiHost = properties.getProperty("rmiHost");
 		this.rmiPort = properties.getProperty("rmiPort");
+		this.realtimeFeed = properties.getProperty("realtimeFeed", this.realtimeFeed).trim().toLowerCase();
+		this.realtimeInterval = Integer.parseInt(properties.getProperty("realtimeInterval", Integer.toString(this.realtimeInterval)));
 		
 		this.markerType = Integer.parseInt(properties.getProperty("markerType", Integer.toString(this.markerType)));
 		
@@ -77,6 +94,7 @@ public class PropertiesManager {
 		this.showGuardTowers = Boolean.parseBoolean(properties.getProperty("showGuardTowers", Boolean.toString(this.showGuardTowers)));
 		this.showStructures = Boolean.parseBoolean(properties.getProperty("showStructures", Boolean.toString(this.showStructures)));
 		this.showPortals = Boolean.parseBoolean(properties.getProperty("showPortals", Boolean.toString(this.showPortals)));
+		this.dataChunkSize = Integer.parseInt(properties.getProperty("dataChunkSize", Integer.toString(this.dataChunkSize)));
 		
 		if (!WurmMapGen.verbose) {
 			WurmMapGen.verbose = Boolean.parseBoolean(properties.getProperty("verbose", Boolean.toString(WurmMapGen.verbose)));
@@ -91,15 +109,82 @@ public class PropertiesManager {
 		this.mapShadePaths = Boolean.parseBoolean(properties.getProperty("mapShadePaths", Boolean.toString(this.mapShadePaths)));
 		this.mapGenerateWater = Boolean.parseBoolean(properties.getProperty("mapGenerateWater", Boolean.toString(this.mapGenerateWater)));
 		this.mapGenerateBridges = Boolean.parseBoolean(properties.getProperty("mapGenerateBridges", Boolean.toString(this.mapGenerateBridges)));
+		this.mapGenerateStructures = Boolean.parseBoolean(properties.getProperty("mapGenerateStructures", Boolean.toString(this.mapGenerateStructures)));
+		this.mapSnapshot = Boolean.parseBoolean(properties.getProperty("mapSnapshot", Boolean.toString(this.mapSnapshot)));
+		this.databaseSnapshot = properties.getProperty("databaseSnapshot", this.databaseSnapshot).trim().toLowerCase();
+		
+		this.mapTileEncoder = properties.getProperty("mapTileEncoder", this.mapTileEncoder).trim().toLowerCase();
+		this.mapTileCompression = Integer.parseInt(properties.getProperty("mapTileCompression", Integer.toString(this.mapTileCompression)));
+		this.mapTileFilter = properties.getProperty("mapTileFilter", this.mapTileFilter).trim().toLowerCase();
+		this.mapOutputMode = properties.getProperty("mapOutputMode", this.mapOutputMode).trim().toLowerCase();
 		
 		this.wurmMapLocation = new File(mapLocation);
 		this.saveLocation = new File(saveLocation);
+		this.stagedOutput = Boolean.parseBoolean(properties.getProperty("stagedOutput", Boolean.toString(this.stagedOutput)));
+		this.watchDelay = Integer.parseInt(properties.getProperty("watchDelay", Integer.toString(this.watchDelay)));
+		this.servePort = Integer.parseInt(properties.getProperty("servePort", Integer.toString(this.servePort)));
+		this.serveCacheSize = Integer.parseInt(properties.getProperty("serveCacheSize", Integer.toString(this.serveCacheSize)));
 		
 		if (this.markerType < 1 || this.markerType > 3) {
 			Logger.error("Marker type should be a number between 1 - 3");
 			return false;
 		}
 		
+		if (!this.realtimeFeed.equals("php") && !this.realtimeFeed.equals("java")) {
+			Logger.error("Realtime feed should be php or java");
+			return false;
+		}
+		
+		if (this.realtimeInterval < 1) {
+			Logger.error("Realtime interval should be a positive number");
+			return false;
+		}
+		
+		if (this.watchDelay < 1) {
+			Logger.error("Watch delay should be a positive number");
+			return false;
+		}
+		
+		if (this.servePort < 1 || this.servePort > 65535) {
+			Logger.error("Serve port should be a number between 1 - 65535");
+			return false;
+		}
+		
+		if (this.serveCacheSize < 1) {
+			Logger.error("Serve cache size should be a positive number");
+			return false;
+		}
+		
+		if (this.dataChunkSize < 0) {
+			Logger.error("Data chunk size should be 0 or a positive number");
+			return false;
+		}
+		
+		if (!this.mapTileEncoder.equals("png") && !this.mapTileEncoder.equals("imageio")) {
+			Logger.error("Map tile encoder should be png or imageio");
+			return false;
+		}
+		
+		if (this.mapTileCompression < 0 || this.mapTileCompression > 9) {
+			Logger.error("Map tile compression should be a number between 0 - 9");
+			return false;
+		}
+		
+		if (!this.mapTileFilter.matches("none|sub|up|average|paeth|adaptive")) {
+			Logger.error("Map tile filter should be none, sub, up, average, paeth or adaptive");
+			return false;
+		}
+		
+		if (!this.mapOutputMode.equals("files") && !this.mapOutputMode.equals("archive")) {
+			Logger.error("Map output mode should be files or archive");
+			return false;
+		}
+		
+		if (!this.databaseSnapshot.matches("backup|immutable|copy")) {
+			Logger.error("Database snapshot should be backup, immutable or copy");
+			return false;
+		}
+		
 		Logger.ok("Loaded properties file");
 		return true;
 	}
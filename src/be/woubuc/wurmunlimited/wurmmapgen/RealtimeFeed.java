@@ -0,0 +1,415 @@
+package be.woubuc.wurmunlimited.wurmmapgen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.filegen.JsonStreamWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the online players from the WurmWebRMI interface once per interval, and shares the result with all viewers of
+ * the map. Without it, every browser requests players.php, which makes its own request to the game server.
+ *
+ * Every change in the player positions gets a new version. Viewers that already have an earlier version can be sent
+ * only the players that changed since then. The versions start over when the process restarts, so each process has its
+ * own epoch (its start time): a version is only valid together with the epoch it was created in, written as a tag
+ * {@code epoch-version}.
+ */
+public final class RealtimeFeed {
+	
+	/**
+	 * Receives the changes to the online players
+	 */
+	public interface Listener {
+		/**
+		 * Called when the online players changed
+		 * @param  version  The new version
+		 * @param  delta    The changes since the previous version, as JSON
+		 */
+		void update(long version, String delta) throws IOException;
+		
+		/**
+		 * Called when nothing changed during an interval, so the listener can check its connection
+		 */
+		void idle() throws IOException;
+	}
+	
+	/**
+	 * An online player
+	 */
+	private static final class Player {
+		final String name;
+		final double x;
+		final double y;
+		
+		Player(String name, double x, double y) {
+			this.name = name;
+			this.x = x;
+			this.y = y;
+		}
+		
+		boolean samePosition(Player other) {
+			return other != null && other.x == x && other.y == y && other.name.equals(name);
+		}
+	}
+	
+	/**
+	 * The online players at one version
+	 */
+	private static final class Snapshot {
+		final long version;
+		final Map<String, Player> players;
+		final String json;
+		
+		// Deltas to this version, most viewers have the same previous version
+		final Map<Long, String> deltas = new ConcurrentHashMap<>();
+		
+		Snapshot(long epoch, long version, Map<String, Player> players) throws IOException {
+			this.version = version;
+			this.players = players;
+			
+			StringWriter writer = new StringWriter();
+			JsonStreamWriter json = new JsonStreamWriter(writer);
+			json.beginObject();
+			json.name("epoch").value(epoch);
+			json.name("version").value(version);
+			json.name("players");
+			writePlayers(json, players.entrySet());
+			json.endObject();
+			json.flush();
+			this.json = writer.toString();
+		}
+	}
+	
+	// Number of previous versions to keep, viewers with an older version get the full list of players
+	private static final int keptVersions = 16;
+	
+	private final long epoch = System.currentTimeMillis();
+	private final String rmiUrl;
+	private final long interval;
+	private final Path snapshotPath;
+	
+	private ScheduledExecutorService scheduler;
+	private volatile Snapshot current;
+	private final LinkedHashMap<Long, Snapshot> history = new LinkedHashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	
+	private boolean failing = false;
+	
+	/**
+	 * Initialises the feed
+	 * @param  snapshotPath  The file to write the online players to, relative to the save location, or null to only keep them in memory
+	 */
+	public RealtimeFeed(Path snapshotPath) throws IOException {
+		this.rmiUrl = "http://" + WurmMapGen.properties.rmiHost + ":" + WurmMapGen.properties.rmiPort + "/getOnlinePlayers";
+		this.interval = TimeUnit.SECONDS.toMillis(WurmMapGen.properties.realtimeInterval);
+		this.snapshotPath = snapshotPath;
+		this.current = new Snapshot(epoch, 0, new LinkedHashMap<>());
+	}
+	
+	/**
+	 * Starts polling the online players in the background
+	 */
+	public void start() {
+		// Write the empty list of players right away, so the map can load before the first players are loaded
+		if (snapshotPath != null) {
+			try {
+				writeSnapshot(current);
+			} catch (IOException e) {
+				Logger.warn("Could not write online players: " + e.getMessage());
+			}
+		}
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Realtime feed");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::poll, 0, interval, TimeUnit.MILLISECONDS);
+		
+		Logger.info("Polling online players from " + rmiUrl + " every " + WurmMapGen.properties.realtimeInterval + " s", true);
+	}
+	
+	/**
+	 * Stops polling
+	 */
+	public void stop() {
+		if (scheduler != null) scheduler.shutdownNow();
+	}
+	
+	/**
+	 * Gets the current version of the online players
+	 * @return  The version, 0 until the players have been loaded
+	 */
+	public long getVersion() {
+		return current.version;
+	}
+	
+	/**
+	 * Gets the tag of the current version, which is only valid in this process
+	 * @return  The tag, formatted as {@code epoch-version}
+	 */
+	public String getTag() {
+		return getTag(current.version);
+	}
+	
+	/**
+	 * Gets the tag of a version
+	 * @param  version  The version
+	 * @return  The tag, formatted as {@code epoch-version}
+	 */
+	public String getTag(long version) {
+		return epoch + "-" + version;
+	}
+	
+	/**
+	 * Gets all online players
+	 * @return  The epoch, the version and the online players, as JSON
+	 */
+	public String getSnapshot() {
+		return current.json;
+	}
+	
+	/**
+	 * Gets the changes to the online players since a previous version
+	 * @param  since  The tag of the previous version
+	 * @return  The changes as JSON, or the full list of players if the previous version is no longer known or was
+	 *          created by another process
+	 */
+	public String getDelta(String since) throws IOException {
+		final int separator = since.indexOf('-');
+		try {
+			if (separator > 0 && Long.parseLong(since.substring(0, separator)) == epoch) {
+				return getDelta(Long.parseLong(since.substring(separator + 1)));
+			}
+		} catch (NumberFormatException e) {
+			// Not a valid tag, send all players
+		}
+		return current.json;
+	}
+	
+	private String getDelta(long since) throws IOException {
+		final Snapshot snapshot = current;
+		if (since == snapshot.version) return createDelta(snapshot, snapshot);
+		
+		final Snapshot previous;
+		synchronized (history) {
+			previous = history.get(since);
+		}
+		if (previous == null) return snapshot.json;
+		
+		String delta = snapshot.deltas.get(since);
+		if (delta == null) {
+			delta = createDelta(previous, snapshot);
+			snapshot.deltas.put(since, delta);
+		}
+		return delta;
+	}
+	
+	/**
+	 * Adds a listener that receives every change to the online players
+	 * @param  listener  The listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener
+	 * @param  listener  The listener
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Loads the online players, and notifies the listeners if anything changed
+	 */
+	private void poll() {
+		final Map<String, Player> players;
+		try {
+			players = loadPlayers();
+		} catch (IOException e) {
+			// Only log the first failure, the feed keeps trying every interval
+			if (!failing) Logger.warn("Could not load online players: " + e.getMessage());
+			failing = true;
+			notifyIdle();
+			return;
+		}
+		
+		if (failing) Logger.info("Online players loaded again", true);
+		failing = false;
+		
+		try {
+			update(players);
+		} catch (IOException e) {
+			Logger.warn("Could not update online players: " + e.getMessage());
+		}
+	}
+	
+	private void update(Map<String, Player> players) throws IOException {
+		final Snapshot previous = current;
+		
+		// The first list of players is always published, even if nobody is online
+		if (previous.version > 0 && !hasChanged(previous.players, players)) {
+			notifyIdle();
+			return;
+		}
+		
+		final Snapshot snapshot = new Snapshot(epoch, previous.version + 1, players);
+		synchronized (history) {
+			history.put(previous.version, previous);
+			final Iterator<Long> versions = history.keySet().iterator();
+			while (history.size() > keptVersions) {
+				versions.next();
+				versions.remove();
+			}
+		}
+		
+		current = snapshot;
+		
+		if (snapshotPath != null) writeSnapshot(snapshot);
+		
+		final String delta = getDelta(previous.version);
+		for (Listener listener : listeners) {
+			try {
+				listener.update(snapshot.version, delta);
+			} catch (IOException e) {
+				listeners.remove(listener);
+			}
+		}
+	}
+	
+	private void notifyIdle() {
+		for (Listener listener : listeners) {
+			try {
+				listener.idle();
+			} catch (IOException e) {
+				listeners.remove(listener);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the online players to the snapshot file, so they can be served by a regular web server
+	 */
+	private void writeSnapshot(Snapshot snapshot) throws IOException {
+		// Resolve the save location every time, it is swapped to a new directory when staged output is used
+		final Path path = Paths.get(WurmMapGen.properties.saveLocation.getAbsolutePath()).toRealPath().resolve(snapshotPath);
+		final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		
+		Files.createDirectories(path.getParent());
+		Files.write(tempPath, snapshot.json.getBytes(StandardCharsets.UTF_8));
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Requests the online players from the WurmWebRMI interface. Each line of the response is a player, formatted as
+	 * {@code id=[name,x,y]}.
+	 * @return  The online players, by ID
+	 */
+	private Map<String, Player> loadPlayers() throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(rmiUrl).openConnection();
+		connection.setConnectTimeout(5000);
+		connection.setReadTimeout(10000);
+		
+		Map<String, Player> players = new LinkedHashMap<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				final int separator = line.indexOf('=');
+				if (separator < 0) continue;
+				
+				String value = line.substring(separator + 1).trim();
+				if (value.startsWith("[")) value = value.substring(1);
+				if (value.endsWith("]")) value = value.substring(0, value.length() - 1);
+				
+				// The name is everything before the coordinates
+				final int yIndex = value.lastIndexOf(',');
+				final int xIndex = yIndex < 0 ? -1 : value.lastIndexOf(',', yIndex - 1);
+				if (xIndex < 0) continue;
+				
+				try {
+					players.put(line.substring(0, separator).trim(), new Player(value.substring(0, xIndex),
+							Double.parseDouble(value.substring(xIndex + 1, yIndex).trim()),
+							Double.parseDouble(value.substring(yIndex + 1).trim())));
+				} catch (NumberFormatException e) {
+					Logger.details("Skipped invalid player data: " + line);
+				}
+			}
+		} finally {
+			connection.disconnect();
+		}
+		return players;
+	}
+	
+	private static boolean hasChanged(Map<String, Player> previous, Map<String, Player> players) {
+		if (previous.size() != players.size()) return true;
+		for (Map.Entry<String, Player> entry : players.entrySet()) {
+			if (!entry.getValue().samePosition(previous.get(entry.getKey()))) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Creates the JSON of the changes between two versions: the players that are new or moved, and the IDs of the
+	 * players that went offline
+	 */
+	private String createDelta(Snapshot previous, Snapshot snapshot) throws IOException {
+		List<Map.Entry<String, Player>> changed = new ArrayList<>();
+		for (Map.Entry<String, Player> entry : snapshot.players.entrySet()) {
+			if (!entry.getValue().samePosition(previous.players.get(entry.getKey()))) changed.add(entry);
+		}
+		
+		StringWriter writer = new StringWriter();
+		JsonStreamWriter json = new JsonStreamWriter(writer);
+		json.beginObject();
+		json.name("epoch").value(epoch);
+		json.name("from").value(previous.version);
+		json.name("version").value(snapshot.version);
+		json.name("changed");
+		writePlayers(json, changed);
+		
+		json.name("removed").beginArray();
+		for (String id : previous.players.keySet()) {
+			if (!snapshot.players.containsKey(id)) json.value(id);
+		}
+		json.endArray();
+		
+		json.endObject();
+		json.flush();
+		return writer.toString();
+	}
+	
+	private static void writePlayers(JsonStreamWriter json, Iterable<Map.Entry<String, Player>> players) throws IOException {
+		json.beginArray();
+		for (Map.Entry<String, Player> entry : players) {
+			json.beginObject();
+			json.name("id").value(entry.getKey());
+			json.name("name").value(entry.getValue().name);
+			json.name("x").value(entry.getValue().x);
+			json.name("y").value(entry.getValue().y);
+			json.endObject();
+		}
+		json.endArray();
+	}
+}
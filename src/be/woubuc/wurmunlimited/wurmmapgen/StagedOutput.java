@@ -0,0 +1,190 @@
+package be.woubuc.wurmunlimited.wurmmapgen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileArchive;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates the output in a new generation directory and publishes it when it is complete, so the web server never
+ * serves a mix of old and new files. The save location becomes a symbolic link to the published generation, which is
+ * swapped with an atomic rename.
+ *
+ * A new generation starts with hard links to the files of the previous generation, so unchanged tiles and data files
+ * don't have to be copied or generated again. Because the files are shared, files must never be changed in place:
+ * everything that writes to the output replaces files by moving a new file over them.
+ */
+public final class StagedOutput {
+	
+	// Number of published generations to keep, so requests that started before a swap can still finish
+	private static final int keptGenerations = 2;
+	
+	private final Path saveLocation;
+	private final Path generationsPath;
+	
+	private Path stagingPath;
+	
+	/**
+	 * Initialises the staged output
+	 * @param  saveLocation  The save location, which becomes a link to the published generation
+	 */
+	public StagedOutput(Path saveLocation) {
+		this.saveLocation = saveLocation.toAbsolutePath().normalize();
+		this.generationsPath = this.saveLocation.resolveSibling(this.saveLocation.getFileName() + ".generations");
+	}
+	
+	/**
+	 * Creates the directory of the next generation, with links to the files of the current generation
+	 * @return  The directory the output should be written to
+	 */
+	public Path prepare() throws IOException {
+		Logger.title("Staged output");
+		Files.createDirectories(generationsPath);
+		
+		final List<Integer> generations = getGenerations();
+		final int next = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+		stagingPath = generationsPath.resolve(Integer.toString(next));
+		
+		// Remove the leftovers of a run that didn't complete
+		if (Files.exists(stagingPath)) deleteDirectory(stagingPath);
+		Files.createDirectories(stagingPath);
+		
+		if (Files.isDirectory(saveLocation)) {
+			final long startTime = System.currentTimeMillis();
+			final int count = linkFiles(saveLocation.toRealPath(), stagingPath);
+			Logger.ok("Linked " + count + " files of the current output in " + (System.currentTimeMillis() - startTime) + " ms", true);
+		}
+		
+		Logger.details("Generating into " + stagingPath);
+		Logger.ok("Generation " + next + " prepared");
+		return stagingPath;
+	}
+	
+	/**
+	 * Publishes the generated output by pointing the save location to it, and removes old generations
+	 */
+	public void publish() throws IOException {
+		Logger.title("Publish output");
+		
+		final Path tempLink = saveLocation.resolveSibling(saveLocation.getFileName() + ".link");
+		Files.deleteIfExists(tempLink);
+		Files.createSymbolicLink(tempLink, stagingPath);
+		
+		// The first time, the existing output directory is moved aside to become the previous generation
+		if (Files.isDirectory(saveLocation, LinkOption.NOFOLLOW_LINKS)) {
+			final Path previous = generationsPath.resolve("0");
+			if (Files.exists(previous)) deleteDirectory(previous);
+			Files.move(saveLocation, previous);
+			Logger.details("Moved the existing output to " + previous);
+		}
+		
+		// Renaming a link over another link replaces it atomically
+		Files.move(tempLink, saveLocation, StandardCopyOption.ATOMIC_MOVE);
+		Logger.ok("Published " + stagingPath.getFileName());
+		
+		final List<Integer> generations = getGenerations();
+		for (int i = 0; i < generations.size() - keptGenerations; i++) {
+			final Path generation = generationsPath.resolve(Integer.toString(generations.get(i)));
+			deleteDirectory(generation);
+			Logger.details("Removed generation " + generation.getFileName());
+		}
+	}
+	
+	/**
+	 * Removes the generated output after a failed run, the published generation stays in place
+	 */
+	public void discard() throws IOException {
+		if (stagingPath == null) return;
+		
+		deleteDirectory(stagingPath);
+		Logger.details("Removed unpublished generation " + stagingPath.getFileName());
+	}
+	
+	/**
+	 * Gets the numbers of the existing generations
+	 * @return  The generation numbers, lowest first
+	 */
+	private List<Integer> getGenerations() throws IOException {
+		List<Integer> generations = new ArrayList<>();
+		try (DirectoryStream<Path> directories = Files.newDirectoryStream(generationsPath)) {
+			for (Path directory : directories) {
+				try {
+					generations.add(Integer.parseInt(directory.getFileName().toString()));
+				} catch (NumberFormatException e) {
+					// Not a generation directory
+				}
+			}
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+	
+	/**
+	 * Hard links all files of a directory into another directory. Files that are updated in place (the tile archive) are
+	 * copied instead, and files that can't be linked (e.g. on another file system) are copied as well. The journal, -wal
+	 * and -shm files of the tile archive are never linked or copied: they belong to the database of the published
+	 * generation, the copied archive gets its own.
+	 * @return  The number of files
+	 */
+	private static int linkFiles(Path source, Path destination) throws IOException {
+		final int[] count = { 0 };
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+				Files.createDirectories(destination.resolve(source.relativize(directory).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				final String name = file.getFileName().toString();
+				
+				// Temporary files of an interrupted run, and the SQLite files that go with a database
+				if (name.endsWith(".tmp")) return FileVisitResult.CONTINUE;
+				if (name.endsWith("-wal") || name.endsWith("-shm") || name.endsWith("-journal")) return FileVisitResult.CONTINUE;
+				
+				final Path target = destination.resolve(source.relativize(file).toString());
+				if (name.endsWith(".mbtiles")) {
+					TileArchive.copy(file, target);
+				} else {
+					try {
+						Files.createLink(target, file);
+					} catch (IOException | UnsupportedOperationException e) {
+						Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+					}
+				}
+				
+				count[0]++;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return count[0];
+	}
+	
+	private static void deleteDirectory(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -1,13 +1,19 @@
 package be.woubuc.wurmunlimited.wurmmapgen;
 
 import com.samskivert.mustache.Mustache;
-import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,13 +46,18 @@ public class TemplateHandler {
 			
 			Logger.details("Compiling index.html");
 			
+			// Write to a temporary file first, so the page is never served half-written
+			final Path outputPath = Paths.get(WurmMapGen.outputPath, "index.html");
+			final Path tempPath = Paths.get(WurmMapGen.outputPath, "index.html.tmp");
+			
 			FileReader template = new FileReader(templateDirectory + File.separator + "index.html");
-			FileWriter output = new FileWriter(WurmMapGen.properties.saveLocation.getAbsolutePath() + File.separator + "index.html", false);
+			Writer output = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8);
 			
 			Mustache.compiler().compile(template).execute(data, output);
 			
 			template.close();
 			output.close();
+			Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
 			
 		} catch (Exception e) {
 			Logger.error(e.getMessage());
@@ -62,27 +73,48 @@ public class TemplateHandler {
 	public void copyAssets() throws IOException {
 		Logger.title("Template assets");
 		
-		copyAssetsDirectory("app");
-		copyAssetsDirectory("css");
-		copyAssetsDirectory("data");
-		copyAssetsDirectory("dist");
-		copyAssetsDirectory("includes");
-		copyAssetsDirectory("markers");
+		copyAssetsDirectory("app", false);
+		copyAssetsDirectory("css", false);
+		copyAssetsDirectory("dist", false);
+		copyAssetsDirectory("includes", false);
+		copyAssetsDirectory("markers", false);
+		
+		// The JSON data files are only placeholders, overwriting the generated files would make them change on every run
+		copyAssetsDirectory("data", true);
 		
 		Logger.ok("Template asset files copied");
 	}
 	
 	/**
-	 * Copies a subdirectory of the template directory into the configured destination
+	 * Copies a subdirectory of the template directory into the configured destination. Existing files are replaced
+	 * rather than overwritten, because with staged output they may be shared with the published output.
 	 * @param directory the directory within ./template to copy
+	 * @param keepExisting true if JSON files that already exist in the destination should not be overwritten
 	 */
-	private void copyAssetsDirectory(String directory) throws IOException {
+	private void copyAssetsDirectory(String directory, boolean keepExisting) throws IOException {
 		Logger.details("Copying directory " + directory);
 		
-		FileUtils.copyDirectory(
-				new File(templateDirectory + File.separator + directory),
-				new File(WurmMapGen.properties.saveLocation.getAbsolutePath() + File.separator + directory)
-		);
+		final Path source = Paths.get(templateDirectory, directory);
+		final Path destination = Paths.get(WurmMapGen.outputPath, directory);
+		
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+				Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				final Path target = destination.resolve(source.relativize(file).toString());
+				if (keepExisting && file.getFileName().toString().endsWith(".json") && Files.exists(target)) {
+					return FileVisitResult.CONTINUE;
+				}
+				
+				Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+				return FileVisitResult.CONTINUE;
+			}
+		});
 	}
 
 }
@@ -1,126 +1,342 @@
 package be.woubuc.wurmunlimited.wurmmapgen;
 
-import com.wurmonline.mesh.MeshIO;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.FileTileSink;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TerrainPalette;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileArchive;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileDownsampler;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileEncoder;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileIndex;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileManifest;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileRenderer;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileScheduler;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileSink;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileWorkerContext;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.WurmMap;
 import com.wurmonline.mesh.Tiles;
-import com.wurmonline.mesh.Tiles.Tile;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
-import javax.imageio.stream.ImageOutputStream;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.IntStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class TileMapGenerator {
 	
-	private ExecutorService executor;
+	// Colour of the tiles covered by structures
+	private static final int structureColor = 0xff5e4b3c;
 	
-	private int runningThreadsCount = 0;
+	private TileScheduler scheduler;
 	
-	// Which tile types are seen as "path"
-	private final int[] pathTiles = {
-			Tiles.TILE_TYPE_COBBLESTONE,
-			Tiles.TILE_TYPE_COBBLESTONE_ROUND,
-			Tiles.TILE_TYPE_MARBLE_BRICKS,
-			Tiles.TILE_TYPE_MARBLE_SLABS,
-			Tiles.TILE_TYPE_SANDSTONE_BRICKS,
-			Tiles.TILE_TYPE_SANDSTONE_SLABS,
-			Tiles.TILE_TYPE_SLATE_BRICKS,
-			Tiles.TILE_TYPE_SLATE_SLABS,
-			Tiles.TILE_TYPE_STONE_SLABS};
+	private int renderedTilesCount = 0;
+	private int skippedTilesCount = 0;
 	
-	public MeshIO map;
+	public WurmMap map;
+	
+	private TerrainPalette palette;
+	private TileRenderer renderer;
+	private TileManifest manifest;
+	private TileSink sink;
+	
+	private TileIndex bridgeTiles;
+	private TileIndex structureTiles;
+	
+	// Buffers and codecs used to generate tiles. A thread that waits for part of its tile can pick up another tile in
+	// the meantime, so contexts are borrowed per tile rather than owned by a thread.
+	private final List<TileWorkerContext> workerContexts = Collections.synchronizedList(new ArrayList<>());
+	private final Queue<TileWorkerContext> idleWorkerContexts = new ConcurrentLinkedQueue<>();
+	
+	// Keeps track of which tiles were rendered in each zoom level, so only their parents need to be rebuilt
+	private boolean[][] renderedTiles;
+	
+	public TerrainPalette getPalette() { return palette; }
 	
 	/**
-	 * Opens the MeshIO connection required for the map builder
+	 * Maps the Wurm map file into memory
 	 */
 	public void openMap() throws IOException {
-		Logger.title("Open Wurm MeshIO connection");
-		map = MeshIO.open(WurmMapGen.fileManager.map_topLayer.getAbsolutePath());
-		Logger.ok("MeshIO connection opened");
+		Logger.title("Open Wurm map");
+		map = WurmMap.open(WurmMapGen.fileManager.map_topLayer.toPath());
+		Logger.details("Mapped " + WurmMapGen.fileManager.map_topLayer.getAbsolutePath());
+		Logger.ok("Wurm map opened");
 	}
 	
 	/**
-	 * Closes the MeshIO connection
+	 * Releases the Wurm map
 	 */
 	public void closeMap() throws IOException {
-		Logger.title("Close Wurm MeshIO connection");
+		Logger.title("Close Wurm map");
 		map.close();
-		Logger.ok("Connection closed");
+		Logger.ok("Wurm map closed");
+	}
+	
+	/**
+	 * Gets the zoom level of the map tiles rendered from the Wurm map, where one pixel is one Wurm tile
+	 * @return  The native zoom level
+	 */
+	public int getMaxNativeZoom() {
+		return getZoomLevels(map.getSize() / WurmMapGen.properties.mapTileSize);
+	}
+	
+	/**
+	 * Gets the lowest zoom level in the tile pyramid
+	 * @return  The lowest native zoom level
+	 */
+	public int getMinNativeZoom() {
+		return 0;
 	}
 	
 	/**
 	 * Generates the map tile images
 	 */
-	public void generateMapTiles() {
+	public boolean generateMapTiles() {
 		Logger.title("Map generation");
 		final long startTime = System.currentTimeMillis();
 		
-		Path imagesDirectory = Paths.get(WurmMapGen.properties.saveLocation.getAbsolutePath(), "images");
-		Logger.details("Creating images directory " + imagesDirectory.toString());
+		final int tileCount = (map.getSize() / WurmMapGen.properties.mapTileSize);
+		final int maxZoom = getMaxNativeZoom();
+		final int minZoom = getMinNativeZoom();
+		
+		final Path imagesPath = Paths.get(WurmMapGen.outputPath, "images");
+		
+		Logger.details("Preparing " + WurmMapGen.properties.mapOutputMode + " output for zoom levels " + minZoom + " - " + maxZoom);
 		try {
-			Files.createDirectories(imagesDirectory);
+			Files.createDirectories(imagesPath);
+			sink = openTileSink(imagesPath, minZoom, maxZoom);
+			
+			for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+				sink.prepare(zoom, getTileCount(zoom));
+			}
 		} catch (IOException e) {
-			Logger.error("Could not create directory");
-			return;
+			Logger.error("Could not prepare map tile output: " + e.getMessage());
+			return false;
 		}
-		Logger.ok("Images directory created");
-		
-		final int tileCount = (map.getSize() / WurmMapGen.properties.mapTileSize);
-		final int totalProcesses = (tileCount * tileCount);
+		Logger.ok("Map tile output prepared");
 		
-		// Use executor to generate each tile in a separate thread
-		executor = Executors.newFixedThreadPool(WurmMapGen.properties.mapGeneratorThreads);
+		prepareRenderer();
 		
 		Logger.details("Server map size: " + map.getSize() + " x " + map.getSize());
 		Logger.details("Interactive map tile size: " + WurmMapGen.properties.mapTileSize + " x " + WurmMapGen.properties.mapTileSize);
 		
-		for (int x = 0; x < tileCount; x++) {
-			for (int y = 0; y < tileCount; y++) {
-				runningThreadsCount++;
-				
-				final int tileX = x;
-				final int tileY = y;
+		// Load the fingerprints of the previous run
+		final Path manifestPath = imagesPath.resolve("tiles.manifest");
+		manifest = new TileManifest(getRenderSettings(), tileCount);
+		try {
+			if (manifest.load(manifestPath)) {
+				Logger.details("Loaded tile manifest, only changed tiles will be rendered");
+			} else {
+				Logger.details("No usable tile manifest found, all tiles will be rendered");
+			}
+		} catch (IOException e) {
+			Logger.warn("Could not read tile manifest: " + e.getMessage());
+		}
+		
+		renderedTiles = new boolean[maxZoom + 1][];
+		for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+			renderedTiles[zoom] = new boolean[getTileCount(zoom) * getTileCount(zoom)];
+		}
+		renderedTilesCount = 0;
+		skippedTilesCount = 0;
+		
+		scheduler = new TileScheduler(WurmMapGen.properties.mapGeneratorThreads);
+		
+		long maxMemoryUsed = 0;
+		IOException failure = null;
+		try {
+			maxMemoryUsed = runTileJobs("Generating map tiles", maxZoom, this::generateImageTile);
+			sink.flush();
+			
+			// Build each zoom level of the pyramid from the level below it
+			for (int zoom = maxZoom - 1; zoom >= minZoom; zoom--) {
+				final int parentZoom = zoom;
 				
-				executor.execute(() -> {
-					try {
-						generateImageTile(tileX, tileY);
-					} catch (Exception e) {
-						Logger.error("Could not generate mape tile image\n      " + e.getMessage());
-						e.printStackTrace();
-						System.exit(1);
-					}
-					runningThreadsCount--;
-				});
+				maxMemoryUsed = Math.max(maxMemoryUsed, runTileJobs("Generating zoom level " + zoom, zoom,
+						(tileX, tileY) -> generatePyramidTile(parentZoom, tileX, tileY)));
+				sink.flush();
+			}
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			scheduler.shutdown();
+		}
+		
+		try {
+			sink.close();
+		} catch (IOException e) {
+			if (failure == null) failure = e;
+		}
+		
+		// Release the worker contexts
+		long workerBufferSize = 0;
+		for (TileWorkerContext context : workerContexts) {
+			workerBufferSize += context.getBufferSize();
+			context.dispose();
+		}
+		final int workerCount = workerContexts.size();
+		workerContexts.clear();
+		idleWorkerContexts.clear();
+		
+		// Keep the manifest of the previous run if the run was cancelled, so no tile is wrongly seen as unchanged
+		if (failure != null) {
+			Logger.error("Map generation cancelled, " + failure.getMessage());
+			failure.printStackTrace();
+			for (Throwable suppressed : failure.getSuppressed()) {
+				Logger.details(suppressed.toString());
 			}
+			return false;
 		}
-		executor.shutdown();
 		
-		Object obj = new Object();
+		try {
+			manifest.save(manifestPath);
+		} catch (IOException e) {
+			Logger.warn("Could not write tile manifest: " + e.getMessage());
+		}
+		
+		// Tile generation completed
+		StringBuilder line = new StringBuilder();
+		line.append("Generated ").append(renderedTilesCount).append(" map tiles in ")
+				.append(System.currentTimeMillis() - startTime).append("ms");
+		line.append(", skipped ").append(skippedTilesCount).append(" unchanged tiles");
+		
+		if (WurmMapGen.debug) {
+			line.append(" (memory use max: ").append(maxMemoryUsed).append("mb, ")
+					.append(workerCount).append(" worker buffers: ").append(workerBufferSize / 1024 / 1024).append("mb)");
+		}
+		line.append("     ");
+		
+		Logger.ok(line.toString());
+		return true;
+	}
+	
+	/**
+	 * Prepares the generator to render single map tiles when they are requested, instead of generating all tiles at
+	 * once. Every tile is rendered when it is requested, so the storage should only be asked for tiles it doesn't have.
+	 * @param  tileSink  The storage for the rendered tiles
+	 */
+	public void prepareOnDemand(TileSink tileSink) throws IOException {
+		final int maxZoom = getMaxNativeZoom();
+		
+		sink = tileSink;
+		for (int zoom = getMinNativeZoom(); zoom <= maxZoom; zoom++) {
+			sink.prepare(zoom, getTileCount(zoom));
+		}
+		
+		prepareRenderer();
+		
+		// Without a previous manifest no tile is seen as unchanged
+		manifest = new TileManifest(getRenderSettings(), map.getSize() / WurmMapGen.properties.mapTileSize);
+		renderedTiles = new boolean[maxZoom + 1][];
+		for (int zoom = 0; zoom <= maxZoom; zoom++) {
+			renderedTiles[zoom] = new boolean[getTileCount(zoom) * getTileCount(zoom)];
+		}
+	}
+	
+	/**
+	 * Renders a single map tile into the tile storage. Tiles below the native zoom level are built from the four tiles
+	 * in the zoom level above them, which must already be stored.
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  true if the tile was rendered, false if the tile is outside of the map
+	 */
+	public boolean renderTile(int zoom, int x, int y) throws IOException {
+		if (!isTileInMap(zoom, x, y)) return false;
+		
+		if (zoom == getMaxNativeZoom()) {
+			generateImageTile(x, y);
+		} else {
+			generatePyramidTile(zoom, x, y);
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks if a tile is part of the tile pyramid
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  true if the tile exists in the map
+	 */
+	public boolean isTileInMap(int zoom, int x, int y) {
+		if (zoom < getMinNativeZoom() || zoom > getMaxNativeZoom()) return false;
+		return x >= 0 && y >= 0 && x < getTileCount(zoom) && y < getTileCount(zoom);
+	}
+	
+	/**
+	 * Closes the tile storage used to render tiles on demand, and releases the worker contexts
+	 */
+	public void closeOnDemand() throws IOException {
+		try {
+			sink.close();
+		} finally {
+			for (TileWorkerContext context : workerContexts) {
+				context.dispose();
+			}
+			workerContexts.clear();
+			idleWorkerContexts.clear();
+		}
+	}
+	
+	/**
+	 * Sets up the tile renderer, and loads all overlays up front so the renderers don't need database access
+	 */
+	private void prepareRenderer() {
+		palette = new TerrainPalette(WurmMapGen.properties);
+		renderer = new TileRenderer(map, palette, WurmMapGen.properties);
+		
+		bridgeTiles = WurmMapGen.properties.mapGenerateBridges
+				? WurmMapGen.db.getBridgeTiles(map.getSize())
+				: new TileIndex.Builder(map.getSize()).build();
+		structureTiles = WurmMapGen.properties.mapGenerateStructures
+				? WurmMapGen.db.getStructureTiles(map.getSize())
+				: new TileIndex.Builder(map.getSize()).build();
+	}
+	
+	/**
+	 * Runs a job for every image tile in a zoom level on the tile scheduler, and displays the progress until all jobs
+	 * are completed
+	 * @param  description  The description to display in the progress line
+	 * @param  zoom         The zoom level
+	 * @param  job          The job to run for each tile
+	 * @return  The maximum memory use in mb while the jobs were running (only measured in debug mode)
+	 * @throws  IOException  If any of the jobs failed, after all running jobs have finished
+	 */
+	private long runTileJobs(final String description, final int zoom, final TileScheduler.TileJob job) throws IOException {
+		final long startTime = System.currentTimeMillis();
+		scheduler.start(getTileCount(zoom), job);
 		
 		int lineLength = 0;
 		long maxMemoryUsed = 0;
 		
-		while (!executor.isTerminated()) {
+		boolean done = false;
+		while (!done) {
+			try {
+				done = scheduler.await(250);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while generating map tiles", e);
+			}
+			
 			// Display progress
-			int percent = (int)((float)(totalProcesses - runningThreadsCount) / (float)(totalProcesses) * 100.0f);
+			final int total = scheduler.getTotalCount();
+			final int completed = scheduler.getCompletedCount();
+			final int percent = (int)((float)completed / (float)total * 100.0f);
+			final long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+			final float tilesPerSecond = completed * 1000f / elapsed;
 			
 			clearLine(lineLength);
 			StringBuilder line = new StringBuilder();
 			if (WurmMapGen.verbose) line.append("      -> ");
-			line.append("Generating map tiles: ").append(percent).append("%");
+			line.append(description).append(": ").append(percent).append("%");
+			line.append(" (").append(completed).append("/").append(total).append(" tiles, ")
+					.append(String.format("%.1f", tilesPerSecond)).append(" tiles/s");
+			if (completed > 0 && completed < total) {
+				line.append(", ").append((long) ((total - completed) / tilesPerSecond)).append("s left");
+			}
+			line.append(")");
 			
 			// In debug mode, also display memory use
 			if (WurmMapGen.debug) {
@@ -137,23 +353,38 @@ public class TileMapGenerator {
 			
 			lineLength = line.length();
 			System.out.print(line.toString());
-			
-			try {
-				synchronized (obj) {
-					obj.wait(100);
-				}
-			} catch (InterruptedException ex) { }
 		}
 		
-		// Tile generation completed
-		StringBuilder line = new StringBuilder();
-		line.append("Generated ").append(tileCount).append(" map tiles in ")
-				.append(System.currentTimeMillis() - startTime).append("ms");
+		clearLine(lineLength);
 		
-		if (WurmMapGen.debug) line.append(" (memory use max: ").append(maxMemoryUsed).append("mb)");
-		line.append("     ");
+		renderedTilesCount += scheduler.getRenderedCount();
+		skippedTilesCount += scheduler.getSkippedCount();
 		
-		Logger.ok(line.toString());
+		final IOException failure = scheduler.getFailure();
+		if (failure != null) throw failure;
+		
+		return maxMemoryUsed;
+	}
+	
+	/**
+	 * Takes an idle worker context, or creates a new one if all contexts are in use
+	 * @return  The worker context
+	 */
+	private TileWorkerContext acquireWorkerContext() {
+		TileWorkerContext context = idleWorkerContexts.poll();
+		if (context == null) {
+			context = new TileWorkerContext(WurmMapGen.properties.mapTileSize, TileEncoder.create(WurmMapGen.properties));
+			workerContexts.add(context);
+		}
+		return context;
+	}
+	
+	/**
+	 * Returns a worker context so it can be reused for the next tile
+	 * @param  context  The worker context
+	 */
+	private void releaseWorkerContext(final TileWorkerContext context) {
+		idleWorkerContexts.add(context);
 	}
 	
 	private void clearLine(final int lineLength) {
@@ -163,118 +394,158 @@ public class TileMapGenerator {
 	}
 	
 	/**
-	 * Generates an image tile for the given tile coordinates
+	 * Gets the number of zoom levels needed to go from one image tile to the given number of image tiles per side
+	 * @param  tileCount  The number of image tiles per side
+	 * @return  The number of zoom levels
+	 */
+	private static int getZoomLevels(final int tileCount) {
+		if (tileCount <= 1) return 0;
+		return 32 - Integer.numberOfLeadingZeros(tileCount - 1);
+	}
+	
+	/**
+	 * Gets the number of image tiles per side in a zoom level
+	 * @param  zoom  The zoom level
+	 * @return  The number of image tiles per side
+	 */
+	private int getTileCount(final int zoom) {
+		final int nativeTileCount = map.getSize() / WurmMapGen.properties.mapTileSize;
+		final int scale = 1 << (getMaxNativeZoom() - zoom);
+		return (nativeTileCount + scale - 1) / scale;
+	}
+	
+	/**
+	 * Opens the storage for the image tiles, as configured in the output mode
+	 * @param  imagesPath  The images directory
+	 * @param  minZoom     The lowest zoom level
+	 * @param  maxZoom     The highest zoom level
+	 * @return  The tile storage
+	 */
+	private static TileSink openTileSink(final Path imagesPath, final int minZoom, final int maxZoom) throws IOException {
+		if (!WurmMapGen.properties.mapOutputMode.equals("archive")) {
+			return new FileTileSink(imagesPath);
+		}
+		
+		final TileArchive archive = TileArchive.open(imagesPath.resolve("tiles.mbtiles"), false);
+		archive.setMetadata("name", WurmMapGen.properties.serverName);
+		archive.setMetadata("format", "png");
+		archive.setMetadata("type", "baselayer");
+		archive.setMetadata("minzoom", Integer.toString(minZoom));
+		archive.setMetadata("maxzoom", Integer.toString(maxZoom));
+		return archive;
+	}
+	
+	/**
+	 * Gets a description of all settings that affect the rendered tiles
+	 * @return  The settings description
+	 */
+	private String getRenderSettings() {
+		return "size=" + map.getSize()
+				+ ",tileSize=" + WurmMapGen.properties.mapTileSize
+				+ ",shading=" + WurmMapGen.properties.mapGenerateShading
+				+ ",shadingModifier=" + WurmMapGen.properties.mapShadingModifier
+				+ ",shadePaths=" + WurmMapGen.properties.mapShadePaths
+				+ ",water=" + WurmMapGen.properties.mapGenerateWater
+				+ ",bridges=" + WurmMapGen.properties.mapGenerateBridges
+				+ ",structures=" + WurmMapGen.properties.mapGenerateStructures
+				+ ",encoder=" + WurmMapGen.properties.mapTileEncoder
+				+ ",compression=" + WurmMapGen.properties.mapTileCompression
+				+ ",filter=" + WurmMapGen.properties.mapTileFilter
+				+ ",output=" + WurmMapGen.properties.mapOutputMode;
+	}
+	
+	/**
+	 * Generates an image tile in the native zoom level for the given tile coordinates, unless the part of the map it
+	 * covers did not change since the previous run
 	 * @param  imageTileX  The X coordinate of the tile
 	 * @param  imageTileY  The Y coordinate of the tile
+	 * @return  true if the tile was rendered, false if it was skipped
 	 */
-	private void generateImageTile(final int imageTileX, final int imageTileY) throws IOException, SQLException {
-		// Build the map tiles with a BufferedImage
-		final BufferedImage imageTile = new BufferedImage(WurmMapGen.properties.mapTileSize, WurmMapGen.properties.mapTileSize, BufferedImage.TYPE_INT_ARGB);
-		final Graphics2D imageTileGraphics = imageTile.createGraphics();
-		
+	private boolean generateImageTile(final int imageTileX, final int imageTileY) throws IOException {
+		final int maxZoom = getMaxNativeZoom();
 		// Go over each Wurm tile
 		final int offsetX = (imageTileX * WurmMapGen.properties.mapTileSize);
 		final int offsetY = (imageTileY * WurmMapGen.properties.mapTileSize);
 		
-		for (int x = offsetX; x < offsetX + WurmMapGen.properties.mapTileSize; x++) {
-			for (int y = offsetY; y < offsetY + WurmMapGen.properties.mapTileSize; y++) {
-				
-				// Load tile from Wurm map
-				int tileEncoded = map.getTile(x, y);
-				byte tileType = Tiles.decodeType(tileEncoded);
-				short tileHeight = Tiles.decodeHeight(tileEncoded);
-				
-				Tile thisTile = Tiles.getTile(tileType);
-				Color tileColor = thisTile.getColor();
-				imageTileGraphics.setColor(tileColor);
-				imageTileGraphics.fillRect(x - offsetX, y - offsetY, 1, 1);
-				
-				if (WurmMapGen.properties.mapGenerateShading) {
-					
-					// Figure out if we should shade this tile
-					boolean shadeTile = true;
-					if (!WurmMapGen.properties.mapShadePaths && IntStream.of(pathTiles).anyMatch(n -> n == tileType)) {
-						shadeTile = false;
-					}
-					
-					if (shadeTile && x < (map.getSize() - 1) && y < (map.getSize() - 1)) {
-						short nextTileHeight = Tiles.decodeHeight(map.getTile(x + 1, y + 1));
-						
-						if (tileHeight - nextTileHeight > 0) {
-							// Shade with black if the slope is towards the next tile (shadow side)
-							int alpha = (int) Math.round(Math.pow(tileHeight - nextTileHeight, (0.95 * WurmMapGen.properties.mapShadingModifier)));
-							if (alpha > 255) alpha = 255;
-							
-							imageTileGraphics.setColor(new Color(0, 0, 0, alpha));
-							imageTileGraphics.fillRect(x - offsetX, y - offsetY, 1, 1);
-							
-						} else {
-							// Shade with white if the slope is away from the next tile
-							int alpha = (int) Math.round(Math.pow(nextTileHeight - tileHeight, (0.8 * WurmMapGen.properties.mapShadingModifier)));
-							if (alpha > 255) alpha = 255;
-							
-							imageTileGraphics.setColor(new Color(255, 255, 255, alpha));
-							imageTileGraphics.fillRect(x - offsetX, y - offsetY, 1, 1);
-						}
-					}
-				}
-				
-				// Draw water
-				if (WurmMapGen.properties.mapGenerateWater && tileHeight < 0) {
-					imageTileGraphics.setColor(new Color(20,80,180,210));
-					imageTileGraphics.fillRect(x - offsetX, y - offsetY, 1, 1);
-				}
-			}
+		final int[] bridgeParts = bridgeTiles.getRegion(offsetX, offsetY, WurmMapGen.properties.mapTileSize);
+		final int[] structureParts = structureTiles.getRegion(offsetX, offsetY, WurmMapGen.properties.mapTileSize);
+		
+		// Skip the tile if nothing changed since the last time it was rendered
+		final long fingerprint = renderer.fingerprint(offsetX, offsetY, bridgeParts, structureParts);
+		if (manifest.isUnchanged(imageTileX, imageTileY, fingerprint) && sink.contains(maxZoom, imageTileX, imageTileY)) {
+			return false;
 		}
 		
-		if (WurmMapGen.properties.mapGenerateBridges) {
-			
-			// Set bridge colour based on cobblestone tiles (ID 9)
-			Tile thisTile = Tiles.getTile(9);
-			Color tileColor = thisTile.getColor();
-			imageTileGraphics.setColor(tileColor);
-			
-			// Get bridge parts data from database
-			PreparedStatement statement = WurmMapGen.db.getZones().getConnection()
-					.prepareStatement("SELECT TILEX, TILEY FROM BRIDGEPARTS WHERE TILEX >= ? AND TILEY >= ? AND TILEX < ? AND TILEY < ?;");
+		// Render straight into the pixel buffer of the image tile, split into bands while other threads are idle
+		final TileWorkerContext context = acquireWorkerContext();
+		try {
+			final int[] pixels = context.getPixels();
 			
-			statement.setInt(1, offsetX);
-			statement.setInt(2, offsetY);
-			statement.setInt(4, offsetX + WurmMapGen.properties.mapTileSize);
-			statement.setInt(4, offsetY + WurmMapGen.properties.mapTileSize);
+			TileScheduler.splitRows(WurmMapGen.properties.mapTileSize,
+					(firstRow, endRow) -> renderer.render(offsetX, offsetY, pixels, firstRow, endRow));
 			
-			ResultSet resultSet = statement.executeQuery();
+			renderer.paint(offsetX, offsetY, pixels, structureParts, structureColor);
 			
-			while (resultSet.next()) {
-				int tileX = resultSet.getInt("TILEX");
-				int tileY = resultSet.getInt("TILEY");
-				imageTileGraphics.fillRect(tileX - offsetX, tileY - offsetY, 1, 1);
-			}
+			// Set bridge colour based on cobblestone tiles (ID 9)
+			renderer.paint(offsetX, offsetY, pixels, bridgeParts, palette.getColor(Tiles.TILE_TYPE_COBBLESTONE));
 			
-			resultSet.close();
-			statement.close();
+			context.write(sink, maxZoom, imageTileX, imageTileY);
+		} finally {
+			releaseWorkerContext(context);
 		}
 		
-		// Get output filename
-		Path outputPath = Paths.get(WurmMapGen.properties.saveLocation.getAbsolutePath(), "images", imageTileX + "-" + imageTileY + ".png");
-		
-		// Write the generated image to a file
-		ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
-		ImageOutputStream outputStream = ImageIO.createImageOutputStream(outputPath.toFile());
-		writer.setOutput(outputStream);
+		manifest.setFingerprint(imageTileX, imageTileY, fingerprint);
+		renderedTiles[maxZoom][imageTileY * getTileCount(maxZoom) + imageTileX] = true;
+		return true;
+	}
+	
+	/**
+	 * Generates an image tile in a lower zoom level by downsampling the four tiles below it, unless none of those
+	 * tiles were rendered in this run
+	 * @param  zoom        The zoom level of the tile
+	 * @param  imageTileX  The X coordinate of the tile
+	 * @param  imageTileY  The Y coordinate of the tile
+	 * @return  true if the tile was rendered, false if it was skipped
+	 */
+	private boolean generatePyramidTile(final int zoom, final int imageTileX, final int imageTileY) throws IOException {
+		final int tileSize = WurmMapGen.properties.mapTileSize;
+		final int childTileCount = getTileCount(zoom + 1);
 		
-		ImageWriteParam param = new JPEGImageWriteParam(java.util.Locale.getDefault());
-		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT) ;
-		param.setCompressionQuality(1f);
+		boolean childRendered = false;
+		for (int childY = imageTileY * 2; childY < Math.min(imageTileY * 2 + 2, childTileCount); childY++) {
+			for (int childX = imageTileX * 2; childX < Math.min(imageTileX * 2 + 2, childTileCount); childX++) {
+				childRendered |= renderedTiles[zoom + 1][childY * childTileCount + childX];
+			}
+		}
 		
-		writer.write(null, new IIOImage(imageTile, null, null ), param);
-		writer.dispose();
+		if (!childRendered && sink.contains(zoom, imageTileX, imageTileY)) {
+			return false;
+		}
 		
-		// Clear image buffer
-		imageTileGraphics.dispose();
-		imageTile.flush();
+		final TileWorkerContext context = acquireWorkerContext();
+		try {
+			final int[] pixels = context.getPixels();
+			
+			for (int quadrantY = 0; quadrantY < 2; quadrantY++) {
+				for (int quadrantX = 0; quadrantX < 2; quadrantX++) {
+					final int childX = imageTileX * 2 + quadrantX;
+					final int childY = imageTileY * 2 + quadrantY;
+					
+					int[] childPixels = null;
+					if (childX < childTileCount && childY < childTileCount) {
+						childPixels = context.readChild(sink, zoom + 1, childX, childY);
+					}
+					
+					TileDownsampler.downsample(childPixels, pixels, tileSize, quadrantX, quadrantY);
+				}
+			}
+			
+			context.write(sink, zoom, imageTileX, imageTileY);
+		} finally {
+			releaseWorkerContext(context);
+		}
 		
-		// Tell JVM it should run garbage collection on the disposed image data
-		System.gc();
+		renderedTiles[zoom][imageTileY * getTileCount(zoom) + imageTileX] = true;
+		return true;
 	}
 }
@@ -0,0 +1,498 @@
+package be.woubuc.wurmunlimited.wurmmapgen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.FileTileSink;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the map from an embedded web server, and renders the map tiles the first time they are requested instead of
+ * generating all of them up front. Rendered tiles are kept in memory, tiles that don't fit in the memory cache are moved
+ * to a temp directory.
+ */
+public final class TileServer {
+	
+	private static final Pattern tilePattern = Pattern.compile("/images/(\\d+)/(\\d+)/(\\d+)\\.png");
+	
+	// Tile URL of the map before the tile pyramid was added, always in the native zoom level
+	private static final Pattern legacyTilePattern = Pattern.compile("/images/(\\d+)-(\\d+)\\.png");
+	
+	// Number of seconds to wait for the tiles that are being rendered when the server stops
+	private static final long stopTimeout = 30;
+	
+	private final Path spillPath;
+	private final RealtimeFeed feed;
+	
+	private HttpServer server;
+	private ForkJoinPool executor;
+	private TileCache cache;
+	
+	// Tiles that are being rendered, so a tile that is requested by several clients at once is only rendered once
+	private final ConcurrentHashMap<Long, CompletableFuture<Void>> rendering = new ConcurrentHashMap<>();
+	
+	private final AtomicLong tileRequests = new AtomicLong();
+	private final AtomicLong renderedTiles = new AtomicLong();
+	private final AtomicLong renderTime = new AtomicLong();
+	private final AtomicLong maxRenderTime = new AtomicLong();
+	
+	/**
+	 * Initialises the server
+	 * @param  feed  The realtime feed of the online players, or null if realtime markers are disabled
+	 */
+	public TileServer(RealtimeFeed feed) {
+		this.feed = feed;
+		spillPath = Paths.get(System.getProperty("java.io.tmpdir"), "WurmMapGen", "tiles-" + System.currentTimeMillis())
+				.toAbsolutePath().normalize();
+	}
+	
+	/**
+	 * Opens the map and starts the web server. The server keeps running until the process is stopped.
+	 * @return  true if the server was started
+	 */
+	public boolean start() throws IOException {
+		WurmMapGen.outputPath = WurmMapGen.properties.saveLocation.getAbsolutePath();
+		
+		// Only the map and the overlays are needed to render tiles, the overlays are loaded into memory up front
+		WurmMapGen.fileManager.load(true, false);
+		WurmMapGen.tileMapGenerator.openMap();
+		
+		if (!WurmMapGen.db.openDatabaseConnections()) {
+			WurmMapGen.db.closeDatabaseConnections();
+			WurmMapGen.tileMapGenerator.closeMap();
+			WurmMapGen.fileManager.unload();
+			return false;
+		}
+		
+		Logger.title("Tile server");
+		
+		Files.createDirectories(spillPath);
+		Logger.details("Created tile cache directory " + spillPath);
+		
+		cache = new TileCache(WurmMapGen.properties.serveCacheSize * 1024L * 1024L, new FileTileSink(spillPath));
+		try {
+			WurmMapGen.tileMapGenerator.prepareOnDemand(cache);
+		} finally {
+			WurmMapGen.db.closeDatabaseConnections();
+		}
+		
+		// Tiles are rendered on the request threads, and rows of a tile are split over the idle threads of the pool
+		executor = new ForkJoinPool(Math.max(2, WurmMapGen.properties.mapGeneratorThreads));
+		server = HttpServer.create(new InetSocketAddress(WurmMapGen.properties.servePort), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+		
+		Logger.ok("Serving the map on http://localhost:" + WurmMapGen.properties.servePort + "/");
+		Logger.info("Tile cache statistics: http://localhost:" + WurmMapGen.properties.servePort + "/stats", false);
+		return true;
+	}
+	
+	/**
+	 * Stops the web server, and removes the temp files
+	 */
+	public void stop() {
+		if (server == null) return;
+		
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		
+		// The renderer can only be closed when no tiles are being rendered anymore
+		try {
+			if (!executor.awaitTermination(stopTimeout, TimeUnit.SECONDS)) {
+				Logger.warn("Tiles were still being rendered after " + stopTimeout + " s, temp files were not removed");
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		
+		try {
+			WurmMapGen.tileMapGenerator.closeOnDemand();
+			WurmMapGen.tileMapGenerator.closeMap();
+			WurmMapGen.fileManager.unload();
+			FileUtils.deleteDirectory(spillPath.toFile());
+		} catch (IOException e) {
+			Logger.warn("Could not remove temp files: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Handles a request
+	 * @param  exchange  The request and response
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		boolean streaming = false;
+		try {
+			final String method = exchange.getRequestMethod();
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				sendError(exchange, 405, "Method not allowed");
+				return;
+			}
+			
+			final String path = exchange.getRequestURI().getPath();
+			
+			Matcher matcher = tilePattern.matcher(path);
+			if (matcher.matches()) {
+				sendTile(exchange, parse(matcher.group(1)), parse(matcher.group(2)), parse(matcher.group(3)));
+				return;
+			}
+			
+			matcher = legacyTilePattern.matcher(path);
+			if (matcher.matches()) {
+				sendTile(exchange, WurmMapGen.tileMapGenerator.getMaxNativeZoom(), parse(matcher.group(1)), parse(matcher.group(2)));
+				return;
+			}
+			
+			// The tile URL of the archive output mode
+			if (path.equals("/includes/tiles.php")) {
+				final String query = exchange.getRequestURI().getQuery();
+				sendTile(exchange, parse(getParameter(query, "z")), parse(getParameter(query, "x")), parse(getParameter(query, "y")));
+				return;
+			}
+			
+			if (feed != null && path.equals("/data/players.json")) {
+				sendPlayers(exchange);
+				return;
+			}
+			
+			if (feed != null && path.equals("/data/players/events")) {
+				streaming = streamPlayers(exchange);
+				return;
+			}
+			
+			if (path.equals("/stats")) {
+				sendStats(exchange);
+				return;
+			}
+			
+			sendFile(exchange, path);
+		} catch (Exception e) {
+			Logger.warn("Could not handle request for " + exchange.getRequestURI() + ": " + e.getMessage());
+			if (WurmMapGen.debug) e.printStackTrace();
+			
+			try {
+				sendError(exchange, 500, "Internal server error");
+			} catch (IOException ignored) {
+				// The response was already started
+			}
+		} finally {
+			if (!streaming) exchange.close();
+		}
+	}
+	
+	/**
+	 * Sends a map tile, and renders it first if it was not rendered yet
+	 */
+	private void sendTile(HttpExchange exchange, int zoom, int x, int y) throws IOException {
+		if (!WurmMapGen.tileMapGenerator.isTileInMap(zoom, x, y)) {
+			sendError(exchange, 404, "Tile not found");
+			return;
+		}
+		
+		tileRequests.incrementAndGet();
+		byte[] data = cache.get(zoom, x, y);
+		if (data == null) {
+			ensureTile(zoom, x, y);
+			data = cache.get(zoom, x, y, false);
+		}
+		
+		exchange.getResponseHeaders().set("Cache-Control", "public, max-age=3600");
+		send(exchange, 200, "image/png", data);
+	}
+	
+	/**
+	 * Renders a tile if it is not in the cache. Tiles below the native zoom level are built from the tiles above them,
+	 * so those are rendered first, in parallel on the threads of the pool. The first request for a tile in a low zoom
+	 * level renders all native tiles it covers (for the lowest zoom level, the whole map), with at most
+	 * mapGeneratorThreads tiles at a time.
+	 */
+	private void ensureTile(int zoom, int x, int y) throws IOException {
+		if (cache.contains(zoom, x, y)) return;
+		
+		final long key = ((long) zoom << 58) | ((long) x << 29) | y;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		final CompletableFuture<Void> existing = rendering.putIfAbsent(key, future);
+		
+		// Another request is already rendering this tile
+		if (existing != null) {
+			try {
+				existing.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for tile " + zoom + "/" + x + "/" + y, e);
+			} catch (ExecutionException e) {
+				throw new IOException("Could not render tile " + zoom + "/" + x + "/" + y, e.getCause());
+			}
+			return;
+		}
+		
+		try {
+			// The tile may have been rendered between the first check and taking over the rendering
+			if (!cache.contains(zoom, x, y)) {
+				if (zoom < WurmMapGen.tileMapGenerator.getMaxNativeZoom()) ensureChildren(zoom, x, y);
+				
+				final long startTime = System.nanoTime();
+				WurmMapGen.tileMapGenerator.renderTile(zoom, x, y);
+				final long duration = System.nanoTime() - startTime;
+				
+				renderedTiles.incrementAndGet();
+				renderTime.addAndGet(duration);
+				maxRenderTime.accumulateAndGet(duration, Math::max);
+			}
+			future.complete(null);
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			rendering.remove(key);
+		}
+	}
+	
+	/**
+	 * Renders the four tiles above a tile in parallel, if they are not in the cache
+	 */
+	private void ensureChildren(int zoom, int x, int y) throws IOException {
+		final List<RecursiveAction> children = new ArrayList<>(4);
+		for (int childY = y * 2; childY < y * 2 + 2; childY++) {
+			for (int childX = x * 2; childX < x * 2 + 2; childX++) {
+				if (!WurmMapGen.tileMapGenerator.isTileInMap(zoom + 1, childX, childY)) continue;
+				
+				final int tileX = childX;
+				final int tileY = childY;
+				children.add(new RecursiveAction() {
+					@Override
+					protected void compute() {
+						try {
+							ensureTile(zoom + 1, tileX, tileY);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			}
+		}
+		
+		try {
+			// Requests are handled on the threads of the pool, so the children are forked into the same pool
+			if (ForkJoinTask.getPool() == executor) ForkJoinTask.invokeAll(children);
+			else executor.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(children);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Sends the online players, or only the changes if the request contains the version the browser already has
+	 */
+	private void sendPlayers(HttpExchange exchange) throws IOException {
+		// Read the version before the players, so the ETag is never newer than the response
+		final String etag = "\"" + feed.getTag() + "\"";
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		
+		final String since = getParameter(exchange.getRequestURI().getQuery(), "since");
+		final String players = since == null ? feed.getSnapshot() : feed.getDelta(since);
+		send(exchange, 200, "application/json", players.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Starts sending the changes to the online players as server-sent events. The connection stays open until the
+	 * browser closes it.
+	 * @return  true if the response was left open
+	 */
+	private boolean streamPlayers(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(200, -1);
+			return false;
+		}
+		
+		exchange.sendResponseHeaders(200, 0);
+		final OutputStream output = exchange.getResponseBody();
+		
+		final RealtimeFeed.Listener listener = new RealtimeFeed.Listener() {
+			@Override
+			public void update(long version, String delta) throws IOException {
+				send("id: " + feed.getTag(version) + "\nevent: players\ndata: " + delta + "\n\n");
+			}
+			
+			@Override
+			public void idle() throws IOException {
+				send(":\n\n");
+			}
+			
+			private synchronized void send(String event) throws IOException {
+				try {
+					output.write(event.getBytes(StandardCharsets.UTF_8));
+					output.flush();
+				} catch (IOException e) {
+					exchange.close();
+					throw e;
+				}
+			}
+		};
+		
+		// Start with the changes since the version the browser has, a reconnecting browser sends the last event ID
+		String since = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+		if (since == null) since = getParameter(exchange.getRequestURI().getQuery(), "since");
+		
+		// Listen first, so no change is missed while the first event is sent
+		feed.addListener(listener);
+		final long version = feed.getVersion();
+		try {
+			listener.update(version, since == null ? feed.getSnapshot() : feed.getDelta(since));
+		} catch (IOException e) {
+			feed.removeListener(listener);
+		}
+		return true;
+	}
+	
+	/**
+	 * Sends the statistics of the tile cache and the tile rendering
+	 */
+	private void sendStats(HttpExchange exchange) throws IOException {
+		final long memoryHits = cache.getMemoryHits();
+		final long spillHits = cache.getSpillHits();
+		final long misses = cache.getMisses();
+		final long lookups = memoryHits + spillHits + misses;
+		final long rendered = renderedTiles.get();
+		
+		JSONObject cacheStats = new JSONObject();
+		cacheStats.put("memoryHits", memoryHits);
+		cacheStats.put("diskHits", spillHits);
+		cacheStats.put("misses", misses);
+		cacheStats.put("hitRatio", lookups == 0 ? 0 : (double) (memoryHits + spillHits) / lookups);
+		cacheStats.put("memoryTiles", cache.getTileCount());
+		cacheStats.put("memoryBytes", cache.getSize());
+		cacheStats.put("maxMemoryBytes", cache.getMaxSize());
+		cacheStats.put("spilledTiles", cache.getSpilledCount());
+		
+		// Rendering a tile below the native zoom level can include rendering the tiles above it, which are counted
+		// separately
+		JSONObject renderStats = new JSONObject();
+		renderStats.put("tiles", rendered);
+		renderStats.put("averageMs", rendered == 0 ? 0 : renderTime.get() / rendered / 1e6);
+		renderStats.put("maxMs", maxRenderTime.get() / 1e6);
+		
+		JSONObject stats = new JSONObject();
+		stats.put("tileRequests", tileRequests.get());
+		stats.put("cache", cacheStats);
+		stats.put("render", renderStats);
+		
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		send(exchange, 200, "application/json", stats.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Sends a file from the save location, such as the template and the data files
+	 */
+	private void sendFile(HttpExchange exchange, String path) throws IOException {
+		// Resolve the save location on every request, it is swapped to a new directory when staged output is used
+		final Path root = WurmMapGen.properties.saveLocation.toPath().toRealPath();
+		Path file = root.resolve(path.replaceFirst("^/+", "")).normalize();
+		if (Files.isDirectory(file)) file = file.resolve("index.html");
+		
+		// PHP scripts are not executed, and could contain server settings
+		final String name = file.getFileName() == null ? "" : file.getFileName().toString().toLowerCase();
+		if (!file.startsWith(root) || !Files.isRegularFile(file) || name.endsWith(".php")) {
+			sendError(exchange, 404, "File not found");
+			return;
+		}
+		
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		send(exchange, 200, getContentType(name), Files.readAllBytes(file));
+	}
+	
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		send(exchange, status, "text/plain; charset=utf-8", message.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+	
+	/**
+	 * Gets the content type of a file from its extension
+	 * @param  name  The file name, in lower case
+	 * @return  The content type
+	 */
+	private static String getContentType(String name) {
+		if (name.endsWith(".html")) return "text/html; charset=utf-8";
+		if (name.endsWith(".js")) return "application/javascript; charset=utf-8";
+		if (name.endsWith(".css")) return "text/css; charset=utf-8";
+		if (name.endsWith(".json")) return "application/json";
+		if (name.endsWith(".png")) return "image/png";
+		if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "image/jpeg";
+		if (name.endsWith(".svg")) return "image/svg+xml";
+		if (name.endsWith(".ico")) return "image/x-icon";
+		return "application/octet-stream";
+	}
+	
+	private static String getParameter(String query, String name) {
+		if (query == null) return null;
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(name + "=")) return parameter.substring(name.length() + 1);
+		}
+		return null;
+	}
+	
+	/**
+	 * Parses a tile coordinate, invalid coordinates become -1 so they are outside of the map
+	 */
+	private static int parse(String value) {
+		try {
+			return value == null ? -1 : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package be.woubuc.wurmunlimited.wurmmapgen;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps running after the map has been generated, and regenerates the parts of the output that are affected when the
+ * server writes to the map or the databases
+ */
+public final class WatchMode {
+	
+	/**
+	 * Generates the output, or part of it
+	 */
+	@FunctionalInterface
+	public interface Generator {
+		/**
+		 * Generates the output
+		 * @param  tiles  true if the map tiles should be generated
+		 * @param  data   true if the data files should be generated
+		 * @return  true if the output was generated successfully
+		 */
+		boolean generate(boolean tiles, boolean data) throws Exception;
+	}
+	
+	// The server keeps writing while it runs, so a run is started at the latest this many times the delay after the
+	// first change, even if the writes haven't stopped
+	private static final int maxDelayFactor = 6;
+	
+	private final Generator generator;
+	
+	/**
+	 * Initialises watch mode
+	 * @param  generator  Generates the output when files change
+	 */
+	public WatchMode(Generator generator) {
+		this.generator = generator;
+	}
+	
+	/**
+	 * Watches the Wurm map directory until the process is stopped
+	 */
+	public void run() throws IOException, InterruptedException {
+		final Path mapPath = WurmMapGen.fileManager.getMapPath();
+		final Path databasePath = WurmMapGen.fileManager.getDatabasePath();
+		final long delay = TimeUnit.SECONDS.toMillis(WurmMapGen.properties.watchDelay);
+		
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			mapPath.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			if (Files.isDirectory(databasePath)) {
+				databasePath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			
+			Logger.info("");
+			Logger.info("Watching " + mapPath.getParent() + " for changes", false);
+			
+			while (true) {
+				WatchKey key = watcher.take();
+				
+				boolean tiles = false;
+				boolean data = false;
+				long firstChange = 0;
+				long lastChange = 0;
+				
+				// Collect changes until the server has stopped writing for a while
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						// Events were lost, so it's unknown what changed: regenerate everything to be safe
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							Logger.details("Too many changes to track, regenerating everything");
+							tiles = true;
+							data = true;
+							lastChange = System.currentTimeMillis();
+							if (firstChange == 0) firstChange = lastChange;
+							continue;
+						}
+						
+						if (!(event.context() instanceof Path)) continue;
+						final String fileName = event.context().toString();
+						
+						if (key.watchable().equals(mapPath.getParent())) {
+							if (!fileName.equals(mapPath.getFileName().toString())) continue;
+							tiles = true;
+						} else {
+							if (!isDatabase(fileName)) continue;
+							data = true;
+							
+							// The zones database also contains the bridges and structures drawn on the map tiles
+							if (fileName.startsWith("wurmzones.db") && (WurmMapGen.properties.mapGenerateBridges
+									|| WurmMapGen.properties.mapGenerateStructures)) {
+								tiles = true;
+							}
+						}
+						
+						Logger.details("Changed: " + fileName);
+						lastChange = System.currentTimeMillis();
+						if (firstChange == 0) firstChange = lastChange;
+					}
+					key.reset();
+					
+					if (firstChange == 0) break;
+					final long wait = Math.min(lastChange + delay, firstChange + delay * maxDelayFactor) - System.currentTimeMillis();
+					if (wait <= 0) break;
+					key = watcher.poll(wait, TimeUnit.MILLISECONDS);
+				}
+				
+				if (!tiles && !data) continue;
+				
+				Logger.info("");
+				Logger.info("Regenerating " + (tiles && data ? "map tiles and data files" : tiles ? "map tiles" : "data files"), false);
+				
+				final long startTime = System.currentTimeMillis();
+				boolean success;
+				try {
+					success = generator.generate(tiles, data);
+				} catch (Exception e) {
+					Logger.error("Could not regenerate the map: " + e.getMessage());
+					if (WurmMapGen.debug) e.printStackTrace();
+					success = false;
+				}
+				
+				Logger.info("");
+				Logger.info((success ? "Map regenerated in " : "Regeneration failed after ")
+						+ (System.currentTimeMillis() - startTime) + " ms", false);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a file is one of the databases the map is generated from, or belongs to one (e.g. its write-ahead log).
+	 * The shared memory files are ignored, because they also change when the databases are read.
+	 */
+	private static boolean isDatabase(String fileName) {
+		if (fileName.endsWith("-shm")) return false;
+		return fileName.startsWith("wurmzones.db") || fileName.startsWith("wurmitems.db")
+				|| fileName.startsWith("wurmplayers.db") || fileName.startsWith("modsupport.db");
+	}
+}
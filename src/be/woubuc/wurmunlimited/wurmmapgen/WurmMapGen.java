@@ -3,10 +3,8 @@ package be.woubuc.wurmunlimited.wurmmapgen;
 import be.woubuc.wurmunlimited.wurmmapgen.database.DatabaseHandler;
 import be.woubuc.wurmunlimited.wurmmapgen.filegen.*;
 
-import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.SQLException;
 
 public class WurmMapGen {
 	
@@ -18,9 +16,14 @@ public class WurmMapGen {
 	public static boolean debug = false;
 	public static boolean verbose = false;
 	
+	public static String outputPath;
 	public static String dataPath;
 	public static String phpPath;
 	
+	// How the map loads the online players: php (players.php), json (data/players.json written by the realtime feed)
+	// or events (pushed by the realtime feed in serve mode)
+	public static String realtimeMode = "php";
+	
 	public static void main(String[] args) throws Exception {
 		// Log intro
 		System.out.println("WurmMapGen v2.3.3");
@@ -31,6 +34,8 @@ public class WurmMapGen {
 		// Get command line arguments
 		Path propertiesFilePath = Paths.get("./WurmMapGen.properties").normalize();
 		Path templateDirectoryPath = Paths.get("./template").normalize();
+		boolean watch = false;
+		boolean serve = false;
 		
 		if (args.length > 0) {
 			for (int i = 0; i < args.length; i++) {
@@ -54,6 +59,16 @@ public class WurmMapGen {
 						templateDirectoryPath = Paths.get(args[++i]);
 						break;
 						
+					case "-w":
+					case "--watch":
+						watch = true;
+						break;
+						
+					case "-s":
+					case "--serve":
+						serve = true;
+						break;
+						
 					case "-d":
 					case "--debug":
 						debug = true;
@@ -75,6 +90,8 @@ public class WurmMapGen {
 		System.out.println("      Template directory: " + templateDirectoryPath.toAbsolutePath());
 		if (verbose) System.out.println("      Verbose logging enabled");
 		if (debug) System.out.println("      Debug mode enabled");
+		if (watch) System.out.println("      Watch mode enabled");
+		if (serve) System.out.println("      Serve mode enabled");
 		if (!verbose) System.out.println();
 		
 		// Time the duration of the map generation
@@ -82,63 +99,144 @@ public class WurmMapGen {
 		
 		// Load and assign properties
 		if (!properties.load(propertiesFilePath)) return;
-		dataPath = Paths.get(WurmMapGen.properties.saveLocation.getAbsolutePath(), "data").toString();
-		phpPath = Paths.get(WurmMapGen.properties.saveLocation.getAbsolutePath(), "includes").toString();
 		
-		fileManager.load();
-		tileMapGenerator.openMap();
+		// The realtime feed needs a process that keeps running
+		if (properties.enableRealtimeMarkers && properties.realtimeFeed.equals("java")) {
+			if (serve) realtimeMode = "events";
+			else if (watch) realtimeMode = "json";
+			else Logger.warn("The java realtime feed only runs with --watch or --serve, players.php is used instead");
+		}
 		
-		if (!db.openDatabaseConnections()) return;
+		final TemplateHandler templateHandler = new TemplateHandler(templateDirectoryPath);
 		
-		tileMapGenerator.generateMapTiles();
+		// In serve mode, the map tiles are rendered when they are requested
+		final boolean success = generate(templateHandler, !serve, true);
 		
-		TemplateHandler templateHandler = new TemplateHandler(templateDirectoryPath);
-		templateHandler.copyAssets();
-		templateHandler.render();
+		if (success) {
+			Logger.info("");
+			Logger.info("Map generated in " + (System.currentTimeMillis() - startTime) + " ms", false);
+		}
 		
+		if (serve) {
+			// Regenerating the output would remove the map snapshot the server renders from
+			if (watch) Logger.warn("Watch mode is not available in serve mode");
+			final RealtimeFeed feed = realtimeMode.equals("events") ? new RealtimeFeed(null) : null;
+			if (!success || !new TileServer(feed).start()) System.exit(1);
+			if (feed != null) feed.start();
+		} else if (watch) {
+			if (realtimeMode.equals("json")) new RealtimeFeed(Paths.get("data", "players.json")).start();
+			new WatchMode((tiles, data) -> generate(templateHandler, tiles, data)).run();
+		} else if (!success) {
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Generates the output, or part of it
+	 * @param  templateHandler  The template
+	 * @param  tiles            true if the map tiles should be generated
+	 * @param  data             true if the data files should be generated
+	 * @return  true if the output was generated successfully
+	 */
+	private static boolean generate(TemplateHandler templateHandler, boolean tiles, boolean data) throws Exception {
+		// With staged output, everything is generated in a new directory that is published when the run completes
+		StagedOutput stagedOutput = null;
+		if (properties.stagedOutput) {
+			stagedOutput = new StagedOutput(properties.saveLocation.toPath());
+			outputPath = stagedOutput.prepare().toString();
+		} else {
+			outputPath = properties.saveLocation.getAbsolutePath();
+		}
+		dataPath = Paths.get(outputPath, "data").toString();
+		phpPath = Paths.get(outputPath, "includes").toString();
 		
-		generateDataFiles();
+		fileManager.load(tiles, data);
+		tileMapGenerator.openMap();
+		
+		if (!db.openDatabaseConnections()) {
+			db.closeDatabaseConnections();
+			tileMapGenerator.closeMap();
+			fileManager.unload();
+			if (stagedOutput != null) stagedOutput.discard();
+			return false;
+		}
+		
+		// The template assets contain placeholder data files, so they are copied before the data files are generated
+		templateHandler.copyAssets();
+		
+		// Tile rendering is mostly CPU-bound and the data files mostly wait on the database, so they run concurrently
+		PhaseScheduler phases = new PhaseScheduler();
+		phases.submit("Template", () -> {
+			templateHandler.render();
+			return true;
+		});
+		if (data) submitDataFiles(phases);
+		submitConfigFiles(phases);
+		if (tiles) phases.run("Map tiles", tileMapGenerator::generateMapTiles);
 		
-		if (!db.closeDatabaseConnections()) return;
+		final boolean success = phases.await();
 		
+		db.closeDatabaseConnections();
 		tileMapGenerator.closeMap();
 		fileManager.unload();
 		
-		Logger.info("");
-		Logger.info("Map generated in " + (System.currentTimeMillis() - startTime) + " ms", false);
+		if (stagedOutput != null) {
+			if (success) stagedOutput.publish();
+			else stagedOutput.discard();
+		}
+		
+		return success;
 	}
 	
-	private static void generateDataFiles() throws IOException, SQLException {
-		// data/config.json
-		final ConfigFileGen configFileGen = new ConfigFileGen();
-		configFileGen.generateFile();
-		
-		// includes/config.php
-		final PhpConfigFileGen phpConfigFileGen = new PhpConfigFileGen();
-		phpConfigFileGen.generateFile();
-		
+	/**
+	 * Starts generating the data files in the background
+	 * @param  phases  The phase scheduler
+	 */
+	private static void submitDataFiles(PhaseScheduler phases) {
 		// data/villages.json
 		if (WurmMapGen.properties.showDeeds) {
-			final VillageFileGen villageFileGen = new VillageFileGen();
-			villageFileGen.generateFile();
+			phases.submit("Village data", () -> {
+				new VillageFileGen().generateFile();
+				return true;
+			});
 		}
 		
 		// data/structures.json
 		if (WurmMapGen.properties.showStructures) {
-			final StructureFileGen structureFileGen = new StructureFileGen();
-			structureFileGen.generateFile();
+			phases.submit("Structure data", () -> {
+				new StructureFileGen().generateFile();
+				return true;
+			});
 		}
 		
 		// data/guardtowers.json
 		if (WurmMapGen.properties.showGuardTowers) {
-			final GuardTowerFileGen guardTowerFileGen = new GuardTowerFileGen();
-			guardTowerFileGen.generateFile();
+			phases.submit("Guard tower data", () -> {
+				new GuardTowerFileGen().generateFile();
+				return true;
+			});
 		}
 		
 		// data/portals.json
 		if (WurmMapGen.properties.showPortals) {
-			PortalFileGen portalFileGen = new PortalFileGen();
-			portalFileGen.generateFile();
+			phases.submit("Portal data", () -> {
+				new PortalFileGen().generateFile();
+				return true;
+			});
 		}
 	}
+	
+	/**
+	 * Starts generating the config files in the background, after the other data files because they contain the
+	 * versions of the data files
+	 * @param  phases  The phase scheduler
+	 */
+	private static void submitConfigFiles(PhaseScheduler phases) {
+		// data/config.json and includes/config.php
+		phases.submitAfter("Config data", () -> {
+			new ConfigFileGen().generateFile();
+			new PhpConfigFileGen().generateFile();
+			return true;
+		});
+	}
 }
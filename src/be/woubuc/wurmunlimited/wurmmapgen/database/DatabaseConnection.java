@@ -5,24 +5,55 @@ import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
+/**
+ * Read-only connections to a Wurm database file. Each thread gets its own connection, so the data files can be
+ * generated concurrently, and prepared statements are cached per connection.
+ */
 public class DatabaseConnection {
 	
+	// Maximum number of prepared statements kept per connection
+	private static final int statementCacheSize = 32;
+	
 	private File file;
-	private Connection connection;
+	private boolean immutable;
+	
+	private volatile boolean connected = false;
+	private final ThreadLocal<PooledConnection> threadConnection = new ThreadLocal<>();
+	private final List<PooledConnection> connections = Collections.synchronizedList(new ArrayList<>());
 	
-	public Connection getConnection() { return connection; }
+	/**
+	 * Gets the connection of the current thread
+	 * @return  The connection, or null if the database is not connected
+	 */
+	public Connection getConnection() throws SQLException {
+		final PooledConnection pooled = getPooledConnection();
+		return pooled == null ? null : pooled.connection;
+	}
 	
 	/**
 	 * Prepares a connection to a Wurm database file
-	 * @param  file  The filename
+	 * @param  file       The filename
+	 * @param  immutable  true if the file is read in place and SQLite should not lock or write to it
 	 */
-	DatabaseConnection(File file) {
+	DatabaseConnection(File file, boolean immutable) {
 		this.file = file;
+		this.immutable = immutable;
 	}
 	
 	/**
@@ -30,13 +61,7 @@ public class DatabaseConnection {
 	 * @return  true if the connection is connected
 	 */
 	private boolean isConnected() {
-		if (connection == null) return false;
-		
-		try {
-			return !connection.isClosed();
-		} catch (SQLException e) {
-			return false;
-		}
+		return connected;
 	}
 	
 	/**
@@ -54,12 +79,21 @@ public class DatabaseConnection {
 			throw new IOException("File not found: " + file.getName());
 		}
 		
-		connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+		connected = true;
+		
+		// Open the first connection right away, so connection errors are reported here
+		try {
+			getPooledConnection();
+		} catch (SQLException e) {
+			connected = false;
+			throw e;
+		}
+		
 		Logger.ok("Connection established", true);
 	}
 	
 	/**
-	 * Disconnects from the database
+	 * Disconnects from the database, closing the connections of all threads
 	 */
 	void disconnect() throws SQLException {
 		Logger.details("Disconnecting from " + file.getName());
@@ -69,20 +103,26 @@ public class DatabaseConnection {
 			return;
 		}
 		
-		connection.close();
-		connection = null;
-		Logger.ok("Connection closed", true);
+		connected = false;
+		synchronized (connections) {
+			for (PooledConnection pooled : connections) pooled.connection.close();
+			Logger.ok("Closed " + connections.size() + " connections", true);
+			connections.clear();
+		}
+		threadConnection.remove();
 	}
 	
 	/**
-	 * Creates a prepared statement with given properties
+	 * Creates a prepared statement with given properties. Statements are taken from the cache of the current thread's
+	 * connection when possible, closing the statement returns it to the cache.
 	 * @param  sql   The SQL query
 	 * @param  args  The query values
 	 * @return  The prepared statement
 	 */
 	protected PreparedStatement prepareStatement(String sql, Object... args) throws SQLException {
-		if (!isConnected()) return null;
-		PreparedStatement statement = connection.prepareStatement(sql);
+		final PooledConnection pooled = getPooledConnection();
+		if (pooled == null) return null;
+		PreparedStatement statement = pooled.checkOut(sql);
 		
 		if (args != null && args.length > 0) {
 			for (int i = 0; i < args.length; i++) {
@@ -97,4 +137,96 @@ public class DatabaseConnection {
 		
 		return statement;
 	}
+	
+	/**
+	 * Gets the connection of the current thread, opening it if needed
+	 * @return  The connection, or null if the database is not connected
+	 */
+	private PooledConnection getPooledConnection() throws SQLException {
+		if (!isConnected()) return null;
+		
+		PooledConnection pooled = threadConnection.get();
+		if (pooled != null && !pooled.connection.isClosed()) return pooled;
+		
+		Properties config = new Properties();
+		config.setProperty("open_mode", "1"); // read-only
+		
+		final String url = immutable
+				? "jdbc:sqlite:" + file.toURI() + "?immutable=1"
+				: "jdbc:sqlite:" + file;
+		
+		pooled = new PooledConnection(DriverManager.getConnection(url, config));
+		threadConnection.set(pooled);
+		connections.add(pooled);
+		return pooled;
+	}
+	
+	/**
+	 * A connection with its cache of prepared statements, only used by a single thread
+	 */
+	private static final class PooledConnection {
+		
+		private final Connection connection;
+		
+		// Least recently used statements first
+		private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+		private final Set<String> checkedOut = new HashSet<>();
+		
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+		
+		/**
+		 * Gets a statement from the cache, or prepares a new one
+		 * @param  sql  The SQL query
+		 * @return  The statement, which returns itself to the cache when it is closed
+		 */
+		private PreparedStatement checkOut(String sql) throws SQLException {
+			// A statement that is still in use (e.g. by an outer loop) cannot be shared
+			if (checkedOut.contains(sql)) return connection.prepareStatement(sql);
+			
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			
+			checkedOut.add(sql);
+			evict();
+			return wrap(sql, statement);
+		}
+		
+		/**
+		 * Closes the least recently used statements that are not in use, until the cache fits its maximum size
+		 */
+		private void evict() throws SQLException {
+			Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+			while (statements.size() > statementCacheSize && iterator.hasNext()) {
+				final Map.Entry<String, PreparedStatement> entry = iterator.next();
+				if (checkedOut.contains(entry.getKey())) continue;
+				
+				entry.getValue().close();
+				iterator.remove();
+			}
+		}
+		
+		/**
+		 * Wraps a cached statement, so closing it clears its parameters and returns it to the cache instead
+		 */
+		private PreparedStatement wrap(String sql, PreparedStatement statement) {
+			return (PreparedStatement) Proxy.newProxyInstance(DatabaseConnection.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+						if (method.getName().equals("close") && method.getParameterCount() == 0) {
+							if (checkedOut.remove(sql) && !statement.isClosed()) statement.clearParameters();
+							return null;
+						}
+						
+						try {
+							return method.invoke(statement, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					});
+		}
+	}
 }
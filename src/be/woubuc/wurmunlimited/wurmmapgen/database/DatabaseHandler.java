@@ -2,13 +2,17 @@ package be.woubuc.wurmunlimited.wurmmapgen.database;
 
 import be.woubuc.wurmunlimited.wurmmapgen.Logger;
 import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
+import be.woubuc.wurmunlimited.wurmmapgen.tilegen.TileIndex;
 
+import java.io.File;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class DatabaseHandler {
 	
@@ -24,6 +28,14 @@ public class DatabaseHandler {
 	
 	public DatabaseConnection getModSupport() { return modSupport; }
 	
+	private PlayerDirectory playerDirectory;
+	private ItemScanner itemScanner = null;
+	
+	public PlayerDirectory getPlayerDirectory() { return playerDirectory; }
+	
+	// Maximum number of parameters in a single SQLite query
+	private static final int maxQueryParameters = 999;
+	
 	// The template IDs of all portal objects
 	private static Integer[] portalIds = {
 			603, 604, 605, 637, 606, 607, 732, 733, 855, // Vanilla Wurm portal items
@@ -49,26 +61,27 @@ public class DatabaseHandler {
 	public boolean openDatabaseConnections() {
 		Logger.title("Open db connections");
 		
-		// Create connections
-		zones = new DatabaseConnection(WurmMapGen.fileManager.db_wurmZones);
-		items = new DatabaseConnection(WurmMapGen.fileManager.db_wurmItems);
-		players = new DatabaseConnection(WurmMapGen.fileManager.db_wurmPlayers);
-		
-		if (WurmMapGen.fileManager.db_modSupport != null) {
-			modSupport = new DatabaseConnection(WurmMapGen.fileManager.db_modSupport);
-		}
+		// Create connections, only for the databases needed by the enabled layers (and by this run, in watch mode)
+		final boolean immutable = WurmMapGen.properties.databaseSnapshot.equals("immutable");
+		zones = openConnection(WurmMapGen.fileManager.db_wurmZones, immutable);
+		items = openConnection(WurmMapGen.fileManager.db_wurmItems, immutable);
+		players = openConnection(WurmMapGen.fileManager.db_wurmPlayers, immutable);
+		modSupport = openConnection(WurmMapGen.fileManager.db_modSupport, immutable);
 		
 		// Connect to the db files
 		try {
-			zones.connect();
-			items.connect();
-			players.connect();
+			if (zones != null) zones.connect();
+			if (items != null) items.connect();
+			if (players != null) players.connect();
 			if (modSupport != null) modSupport.connect();
 		} catch (Exception e) {
 			Logger.error("Could not connect: " + e.getMessage());
 			return false;
 		}
 		
+		playerDirectory = (players == null ? null : new PlayerDirectory(players));
+		itemScanner = null;
+		
 		Logger.ok("Database connections opened");
 		return true;
 	}
@@ -79,10 +92,12 @@ public class DatabaseHandler {
 	public boolean closeDatabaseConnections() {
 		Logger.title("Close db connections");
 		
+		if (WurmMapGen.verbose && playerDirectory != null) playerDirectory.logStatistics();
+		
 		try {
-			zones.disconnect();
-			items.disconnect();
-			players.disconnect();
+			if (zones != null) zones.disconnect();
+			if (items != null) items.disconnect();
+			if (players != null) players.disconnect();
 			if (modSupport != null) modSupport.disconnect();
 		} catch (Exception e) {
 			Logger.error("Could not close connection: " + e.getMessage());
@@ -93,6 +108,10 @@ public class DatabaseHandler {
 		return true;
 	}
 	
+	private static DatabaseConnection openConnection(File file, boolean immutable) {
+		return file == null ? null : new DatabaseConnection(file, immutable);
+	}
+	
 	/**
 	 * Loads modded tower template IDs from the modsupport database and adds them to a list
 	 * @param  templateNames  The template names
@@ -129,43 +148,47 @@ public class DatabaseHandler {
 		return ids;
 	}
 	
+	/**
+	 * Reads the items of all enabled layers from wurmitems.db in a single pass, the first time any of them is needed
+	 * @return  The scanned items
+	 */
+	private synchronized ItemScanner scanItems() {
+		if (itemScanner != null) return itemScanner;
+		itemScanner = new ItemScanner();
+		
+		if (WurmMapGen.properties.showGuardTowers) {
+			List<Integer> towerIds = new ArrayList<>(Arrays.asList(DatabaseHandler.towerIds));
+			towerIds.addAll(loadModdedTemplateIds(towerTemplateNames));
+			
+			Logger.details("-> Tower IDs: " + towerIds.toString());
+			itemScanner.addTemplates(towerIds, ItemScanner.ItemType.TOWER);
+		}
+		
+		if (WurmMapGen.properties.showPortals) {
+			Logger.details("-> Portal IDs: " + Arrays.toString(portalIds));
+			itemScanner.addTemplates(Arrays.asList(portalIds), ItemScanner.ItemType.PORTAL);
+		}
+		
+		if (WurmMapGen.properties.showDeeds) {
+			itemScanner.addTemplates(Collections.singletonList(ItemScanner.villageTokenTemplateId), ItemScanner.ItemType.TOKEN);
+		}
+		
+		itemScanner.scan(items);
+		return itemScanner;
+	}
+	
 	/**
 	 * Gets a list of all guard towers
 	 * @return  The guard towers
 	 */
 	public ArrayList<GuardTower> getGuardTowers() {
+		ArrayList<GuardTower> guardTowers = scanItems().getGuardTowers();
 		
-		// Get modded tower IDs
-		List<Integer> towerIds = new ArrayList<>(Arrays.asList(DatabaseHandler.towerIds));
-		towerIds.addAll(loadModdedTemplateIds(towerTemplateNames));
+		// Resolve the owner names in bulk
+		playerDirectory.preload(guardTowers.stream().mapToLong(GuardTower::getOwnerID).toArray());
+		for (GuardTower tower : guardTowers) tower.setOwnerName(playerDirectory.getName(tower.getOwnerID()));
 		
-		Logger.details("Loading guard tower items from wurmitems.db");
-		Logger.details("-> Tower IDs: " + towerIds.toString());
-		
-		// Build query based on the number of tower IDs
-		StringBuilder query = new StringBuilder();
-		query.append("select `LASTOWNERID`, `POSX`, `POSY`, `QUALITYLEVEL`, `DAMAGE` from `ITEMS` where ");
-		for (int i = 1; i < towerIds.size(); i++) query.append("`TEMPLATEID` = ? or ");
-		query.append("`TEMPLATEID` = ?;");
-		
-		ArrayList<GuardTower> guardTowers = new ArrayList<>();
-		try (PreparedStatement statement = items.prepareStatement(query.toString(), (Object[]) towerIds.toArray());
-			 ResultSet resultSet = statement.executeQuery()) {
-			
-			while (resultSet.next()) {
-				guardTowers.add(new GuardTower(
-						resultSet.getLong("LASTOWNERID"),
-						resultSet.getInt("POSX"),
-						resultSet.getInt("POSY"),
-						resultSet.getFloat("QUALITYLEVEL"),
-						resultSet.getFloat("DAMAGE")
-				));
-			}
-			
-			Logger.ok("Loaded data for " + guardTowers.size() + " guard towers", true);
-		} catch (SQLException e) {
-			Logger.error("Could not get guard towers list: " + e.getMessage());
-		}
+		Logger.ok("Loaded data for " + guardTowers.size() + " guard towers", true);
 		return guardTowers;
 	}
 	
@@ -174,71 +197,246 @@ public class DatabaseHandler {
 	 * @return  The portals
 	 */
 	public ArrayList<Portal> getPortals() {
-		Logger.details("Loading portal items from wurmitems.db");
-		Logger.details("-> Portal IDs: " + Arrays.toString(portalIds));
+		ArrayList<Portal> portals = scanItems().getPortals();
 		
-		// Build query based on the number of portal IDs
-		StringBuilder query = new StringBuilder();
-		query.append("select `NAME`, `POSX`, `POSY` from `ITEMS` where ");
-		for (int i = 1; i < portalIds.length; i++) query.append("`TEMPLATEID` = ? or ");
-		query.append("`TEMPLATEID` = ?;");
+		Logger.ok("Loaded data for " + portals.size() + " portals", true);
+		return portals;
+	}
+	
+	/**
+	 * Loads all finished structures and passes them to a consumer one by one. The bounds of all structures are
+	 * calculated in a single aggregate query, and the owner names are loaded in bulk beforehand.
+	 * @param  consumer  Receives each structure
+	 * @return  The number of structures
+	 */
+	public int forEachStructure(Consumer<Structure> consumer) {
+		Logger.details("Loading structure owners from wurmplayers.db");
+		final String ownerQuery = "select distinct `OWNERID` from `STRUCTURES` where `FINISHED` = 1;";
 		
-		ArrayList<Portal> portals = new ArrayList<>();
-		try (PreparedStatement statement = items.prepareStatement(query.toString(), (Object[]) portalIds);
+		long[] ownerIds = new long[256];
+		int ownerCount = 0;
+		try (PreparedStatement statement = zones.prepareStatement(ownerQuery);
 			 ResultSet resultSet = statement.executeQuery()) {
 			
 			while (resultSet.next()) {
-				portals.add(new Portal(
-						resultSet.getString("NAME"),
-						resultSet.getInt("POSX"),
-						resultSet.getInt("POSY")
-				));
+				if (ownerCount == ownerIds.length) ownerIds = Arrays.copyOf(ownerIds, ownerCount * 2);
+				ownerIds[ownerCount++] = resultSet.getLong("OWNERID");
 			}
-			
-			Logger.ok("Loaded data for " + portals.size() + " portals", true);
 		} catch (SQLException e) {
-			Logger.error("Could not get portals list: " + e.getMessage());
+			Logger.error("Could not load structure owners: " + e.getMessage());
 		}
-		return portals;
-	}
-	
-	/**
-	 * Gets a list of all structures
-	 * @return  The structures
-	 */
-	public ArrayList<Structure> getStructures() {
+		
+		playerDirectory.preload(Arrays.copyOf(ownerIds, ownerCount));
+		
 		Logger.details("Loading structures from wurmzones.db");
-		final String query = "select `WURMID` from `STRUCTURES` where `FINISHED` = 1;";
+		final String query = "select `STRUCTURES`.`WURMID`, `STRUCTURES`.`OWNERID`, `STRUCTURES`.`NAME`, " +
+				"min(`BUILDTILES`.`TILEX`) as `MINX`, max(`BUILDTILES`.`TILEX`) as `MAXX`, " +
+				"min(`BUILDTILES`.`TILEY`) as `MINY`, max(`BUILDTILES`.`TILEY`) as `MAXY` " +
+				"from `STRUCTURES` inner join `BUILDTILES` on `BUILDTILES`.`STRUCTUREID` = `STRUCTURES`.`WURMID` " +
+				"where `STRUCTURES`.`FINISHED` = 1 group by `STRUCTURES`.`WURMID`;";
 		
-		ArrayList<Structure> structures = new ArrayList<>();
+		int count = 0;
 		try (PreparedStatement statement = zones.prepareStatement(query);
 			 ResultSet resultSet = statement.executeQuery()) {
 			
-			while (resultSet.next()) structures.add(new Structure(resultSet.getLong("WURMID")));
-			Logger.ok("Loaded data for " + structures.size() + " structures", true);
+			while (resultSet.next()) {
+				consumer.accept(new Structure(
+						resultSet.getLong("WURMID"),
+						resultSet.getString("NAME"),
+						playerDirectory.getName(resultSet.getLong("OWNERID")),
+						resultSet.getInt("MINX"),
+						resultSet.getInt("MAXX") + 1,
+						resultSet.getInt("MINY"),
+						resultSet.getInt("MAXY") + 1
+				));
+				count++;
+			}
+			
+			Logger.ok("Loaded data for " + count + " structures", true);
 		} catch (SQLException e) {
 			Logger.error("Could not get structures list: " + e.getMessage());
 		}
-		return structures;
+		return count;
 	}
 	
 	/**
-	 * Gets a list of all villages
+	 * Gets a list of all villages, with their token locations and citizens. Everything is loaded with a few set-based
+	 * queries and joined in memory.
 	 * @return  The villages
 	 */
 	public ArrayList<Village> getVillages() {
 		Logger.details("Loading villages from wurmzones.db");
-		final String query = "select `ID` from `VILLAGES` where `DISBANDED` = 0;";
+		final String query = "select `ID`, `NAME`, `MAYOR`, `DEVISE`, `STARTX`, `STARTY`, `ENDX`, `ENDY`, `TOKEN`, `PERMANENT` " +
+				"from `VILLAGES` where `DISBANDED` = 0;";
 		
 		ArrayList<Village> villages = new ArrayList<>();
+		LongMap<Village> villagesById = new LongMap<>();
 		try (PreparedStatement statement = zones.prepareStatement(query);
 			 ResultSet resultSet = statement.executeQuery()) {
 			
-			while (resultSet.next()) villages.add(new Village(resultSet.getInt("ID")));
-			Logger.ok("Loaded data for " + villages.size() + " villages", true);
+			while (resultSet.next()) {
+				Village village = new Village(resultSet);
+				villages.add(village);
+				villagesById.put(resultSet.getInt("ID"), village);
+			}
 		} catch (SQLException e) {
 			Logger.error("Could not get village list: " + e.getMessage());
 		}
+		
+		loadVillageTokens(villages);
+		loadVillageCitizens(villagesById);
+		
+		Logger.ok("Loaded data for " + villages.size() + " villages", true);
 		return villages;
 	}
+	
+	/**
+	 * Loads the locations of the village tokens from wurmitems.db. Tokens are found by the item scan, tokens that it
+	 * missed (e.g. a modded token item) are looked up by their ID.
+	 * @param  villages  The villages
+	 */
+	private void loadVillageTokens(List<Village> villages) {
+		Logger.details("Loading village tokens from wurmitems.db");
+		
+		final ItemScanner scanner = scanItems();
+		LongMap<Village> villagesByToken = new LongMap<>();
+		for (Village village : villages) {
+			final int[] position = scanner.getTokenPosition(village.getTokenID());
+			if (position != null) village.setTokenPosition(position[0], position[1]);
+			else villagesByToken.put(village.getTokenID(), village);
+		}
+		
+		forEachIdChunk(villagesByToken.keys(), (placeholders, ids) -> {
+			final String query = "select `WURMID`, `POSX`, `POSY` from `ITEMS` where `WURMID` in (" + placeholders + ");";
+			
+			try (PreparedStatement statement = items.prepareStatement(query, ids);
+				 ResultSet resultSet = statement.executeQuery()) {
+				
+				while (resultSet.next()) {
+					Village village = villagesByToken.get(resultSet.getLong("WURMID"));
+					if (village != null) village.setTokenPosition(resultSet.getInt("POSX"), resultSet.getInt("POSY"));
+				}
+			} catch (SQLException e) {
+				Logger.error("Could not load village token data: " + e.getMessage());
+			}
+		});
+		
+		for (Village village : villages) village.validateTokenPosition();
+	}
+	
+	/**
+	 * Loads the citizens of the villages, only counting citizens that are players (to avoid counting guards etc)
+	 * @param  villagesById  The villages, by village ID
+	 */
+	private void loadVillageCitizens(LongMap<Village> villagesById) {
+		Logger.details("Loading citizens from wurmzones.db");
+		final String citizenQuery = "select `VILLAGEID`, `WURMID` from `CITIZENS`;";
+		
+		// Keep the citizens in the order they are stored in
+		List<Village> citizenVillages = new ArrayList<>();
+		long[] citizenIds = new long[256];
+		int citizenCount = 0;
+		
+		try (PreparedStatement statement = zones.prepareStatement(citizenQuery);
+			 ResultSet resultSet = statement.executeQuery()) {
+			
+			while (resultSet.next()) {
+				Village village = villagesById.get(resultSet.getInt("VILLAGEID"));
+				if (village == null) continue;
+				
+				if (citizenCount == citizenIds.length) citizenIds = Arrays.copyOf(citizenIds, citizenCount * 2);
+				citizenIds[citizenCount++] = resultSet.getLong("WURMID");
+				citizenVillages.add(village);
+			}
+		} catch (SQLException e) {
+			Logger.error("Could not load citizen data: " + e.getMessage());
+		}
+		
+		Logger.details("Loading citizen names from wurmplayers.db");
+		playerDirectory.preload(Arrays.copyOf(citizenIds, citizenCount));
+		
+		for (int i = 0; i < citizenCount; i++) {
+			String name = playerDirectory.getName(citizenIds[i]);
+			if (name != null) citizenVillages.get(i).addCitizen(name);
+		}
+	}
+	
+	/**
+	 * Splits a list of IDs into chunks that fit in a single query (SQLite allows at most 999 parameters)
+	 * @param  ids    The IDs, duplicates are removed
+	 * @param  query  Runs the query for a chunk, with the placeholders for an "in (...)" clause and their values
+	 */
+	static void forEachIdChunk(long[] ids, IdChunkQuery query) {
+		final long[] uniqueIds = Arrays.stream(ids).distinct().toArray();
+		
+		for (int start = 0; start < uniqueIds.length; start += maxQueryParameters) {
+			final int count = Math.min(maxQueryParameters, uniqueIds.length - start);
+			
+			Object[] values = new Object[count];
+			StringBuilder placeholders = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				if (i > 0) placeholders.append(", ");
+				placeholders.append("?");
+				values[i] = uniqueIds[start + i];
+			}
+			
+			query.run(placeholders.toString(), values);
+		}
+	}
+	
+	/**
+	 * Loads the positions of all bridge parts into a tile index
+	 * @param  mapSize  The size of the Wurm map
+	 * @return  The bridge tiles
+	 */
+	public TileIndex getBridgeTiles(int mapSize) {
+		Logger.details("Loading bridge parts from wurmzones.db");
+		final String query = "select `TILEX`, `TILEY` from `BRIDGEPARTS`;";
+		
+		return loadTileIndex(query, mapSize, "bridge");
+	}
+	
+	/**
+	 * Loads the positions of all tiles covered by finished structures into a tile index
+	 * @param  mapSize  The size of the Wurm map
+	 * @return  The structure tiles
+	 */
+	public TileIndex getStructureTiles(int mapSize) {
+		Logger.details("Loading structure tiles from wurmzones.db");
+		final String query = "select `BUILDTILES`.`TILEX`, `BUILDTILES`.`TILEY` from `BUILDTILES` " +
+				"inner join `STRUCTURES` on `STRUCTURES`.`WURMID` = `BUILDTILES`.`STRUCTUREID` " +
+				"where `STRUCTURES`.`FINISHED` = 1;";
+		
+		return loadTileIndex(query, mapSize, "structure");
+	}
+	
+	/**
+	 * Runs a query returning TILEX and TILEY columns on wurmzones.db, and builds a tile index from the results
+	 * @param  query    The SQL query
+	 * @param  mapSize  The size of the Wurm map
+	 * @param  name     The name of the tiles, for logging
+	 * @return  The tile index
+	 */
+	private TileIndex loadTileIndex(String query, int mapSize, String name) {
+		TileIndex.Builder tiles = new TileIndex.Builder(mapSize);
+		try (PreparedStatement statement = zones.prepareStatement(query);
+			 ResultSet resultSet = statement.executeQuery()) {
+			
+			while (resultSet.next()) tiles.add(resultSet.getInt("TILEX"), resultSet.getInt("TILEY"));
+		} catch (SQLException e) {
+			Logger.error("Could not load " + name + " tiles: " + e.getMessage());
+		}
+		
+		TileIndex index = tiles.build();
+		Logger.ok("Loaded " + index.size() + " " + name + " tiles", true);
+		return index;
+	}
+	
+	/**
+	 * Runs a query for one chunk of IDs
+	 */
+	@FunctionalInterface
+	interface IdChunkQuery {
+		void run(String placeholders, Object[] ids);
+	}
 }
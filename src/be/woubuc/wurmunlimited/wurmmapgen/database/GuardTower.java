@@ -1,14 +1,9 @@
 package be.woubuc.wurmunlimited.wurmmapgen.database;
 
-import be.woubuc.wurmunlimited.wurmmapgen.Logger;
-import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
-
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-
 public final class GuardTower {
 	
+	private final long id;
+	
 	private final int posX;
 	private final int posY;
 	
@@ -25,7 +20,11 @@ public final class GuardTower {
 	
 	private static final int areaLimit = 50;
 	
+	public long getId() { return id; }
+	
 	public String getOwnerName() { return ownerName; }
+	long getOwnerID() { return ownerID; }
+	void setOwnerName(String ownerName) { this.ownerName = ownerName; }
 	
 	public int getPosX() { return posX; }
 	public int getPosY() { return posY; }
@@ -40,13 +39,15 @@ public final class GuardTower {
 	
 	/**
 	 * Initialises a guard tower
+	 * @param  id       The item ID of the tower
 	 * @param  ownerID  ID of the guard tower's owner
 	 * @param  posX     The X coordinate of the tower
 	 * @param  posY     The Y coordinate of the tower
 	 * @param  ql       The item quality level
 	 * @param  dmg      The total damage of the tower
 	 */
-	GuardTower(long ownerID, int posX, int posY, float ql, float dmg) {
+	GuardTower(long id, long ownerID, int posX, int posY, float ql, float dmg) {
+		this.id = id;
 		this.ownerID = ownerID;
 		
 		this.posX = (int) Math.floor(posX / 4);
@@ -59,24 +60,5 @@ public final class GuardTower {
 		this.maxX = this.posX + areaLimit;
 		this.minY = this.posY - areaLimit;
 		this.maxY = this.posY + areaLimit;
-		
-		loadOwnerData();
-	}
-	
-	/**
-	 * Loads the name of the tower's owner from the db
-	 */
-	private void loadOwnerData() {
-		final String query = "select `NAME` from `PLAYERS` where `WURMID` = ?";
-		try (PreparedStatement statement = WurmMapGen.db.getPlayers().prepareStatement(query, ownerID);
-			 ResultSet result = statement.executeQuery()) {
-			
-			if (result.next()) {
-				ownerName = result.getString("NAME");
-			}
-			
-		} catch(SQLException e) {
-			Logger.error("Could not load tower owner data: " + e.getMessage());
-		}
 	}
 }
@@ -0,0 +1,114 @@
+package be.woubuc.wurmunlimited.wurmmapgen.database;
+
+import be.woubuc.wurmunlimited.wurmmapgen.Logger;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Reads all items needed for the map (guard towers, portals and village tokens) from wurmitems.db in a single pass
+ * over the ITEMS table, and sorts them by template ID.
+ */
+final class ItemScanner {
+	
+	// Template ID of the village token
+	static final int villageTokenTemplateId = 236;
+	
+	// Number of rows the driver should fetch at once
+	private static final int fetchSize = 4096;
+	
+	enum ItemType { TOWER, PORTAL, TOKEN }
+	
+	private final LongMap<ItemType> templates = new LongMap<>();
+	
+	private final ArrayList<GuardTower> guardTowers = new ArrayList<>();
+	private final ArrayList<Portal> portals = new ArrayList<>();
+	private final LongMap<int[]> tokenPositions = new LongMap<>();
+	
+	ArrayList<GuardTower> getGuardTowers() { return guardTowers; }
+	ArrayList<Portal> getPortals() { return portals; }
+	
+	/**
+	 * Gets the position of a village token
+	 * @param  wurmId  The Wurm ID of the token
+	 * @return  The X and Y position of the token, or null if it was not found
+	 */
+	int[] getTokenPosition(long wurmId) { return tokenPositions.get(wurmId); }
+	
+	/**
+	 * Adds template IDs of items that should be read
+	 * @param  templateIds  The template IDs
+	 * @param  type         The type of the items
+	 */
+	void addTemplates(Collection<Integer> templateIds, ItemType type) {
+		for (int templateId : templateIds) templates.put(templateId, type);
+	}
+	
+	/**
+	 * Reads all items with one of the added template IDs
+	 * @param  items  The connection to wurmitems.db
+	 */
+	void scan(DatabaseConnection items) {
+		if (templates.size() == 0) return;
+		
+		final long[] templateIds = templates.keys();
+		Object[] values = new Object[templateIds.length];
+		StringBuilder placeholders = new StringBuilder();
+		for (int i = 0; i < templateIds.length; i++) {
+			if (i > 0) placeholders.append(", ");
+			placeholders.append("?");
+			values[i] = (int) templateIds[i];
+		}
+		
+		Logger.details("Scanning items in wurmitems.db");
+		final String query = "select `WURMID`, `TEMPLATEID`, `NAME`, `LASTOWNERID`, `POSX`, `POSY`, `QUALITYLEVEL`, `DAMAGE` " +
+				"from `ITEMS` where `TEMPLATEID` in (" + placeholders + ");";
+		
+		final long startTime = System.currentTimeMillis();
+		try (PreparedStatement statement = items.prepareStatement(query, values)) {
+			statement.setFetchSize(fetchSize);
+			
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					final ItemType type = templates.get(resultSet.getInt("TEMPLATEID"));
+					if (type == null) continue;
+					
+					switch (type) {
+						case TOWER:
+							guardTowers.add(new GuardTower(
+									resultSet.getLong("WURMID"),
+									resultSet.getLong("LASTOWNERID"),
+									resultSet.getInt("POSX"),
+									resultSet.getInt("POSY"),
+									resultSet.getFloat("QUALITYLEVEL"),
+									resultSet.getFloat("DAMAGE")
+							));
+							break;
+						
+						case PORTAL:
+							portals.add(new Portal(
+									resultSet.getLong("WURMID"),
+									resultSet.getString("NAME"),
+									resultSet.getInt("POSX"),
+									resultSet.getInt("POSY")
+							));
+							break;
+						
+						case TOKEN:
+							tokenPositions.put(resultSet.getLong("WURMID"),
+									new int[] { resultSet.getInt("POSX"), resultSet.getInt("POSY") });
+							break;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Could not scan items: " + e.getMessage());
+		}
+		
+		Logger.ok("Found " + guardTowers.size() + " guard towers, " + portals.size() + " portals and "
+				+ tokenPositions.size() + " village tokens in " + (System.currentTimeMillis() - startTime) + " ms", true);
+	}
+}
@@ -0,0 +1,119 @@
+package be.woubuc.wurmunlimited.wurmmapgen.database;
+
+/**
+ * Hash map with primitive long keys (e.g. Wurm IDs), so looking up database rows in memory doesn't box every key
+ * @param  <V>  The value type, values cannot be null
+ */
+public final class LongMap<V> {
+	
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+	
+	/**
+	 * Initialises an empty map
+	 */
+	public LongMap() {
+		this(16);
+	}
+	
+	/**
+	 * Initialises an empty map
+	 * @param  expectedSize  The number of entries the map should hold without growing
+	 */
+	public LongMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) capacity <<= 1;
+		
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+	
+	/**
+	 * Gets the number of entries in the map
+	 * @return  The number of entries
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Gets the value of a key
+	 * @param  key  The key
+	 * @return  The value, or null if the map does not contain the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		for (int slot = slot(key, keys.length); values[slot] != null; slot = (slot + 1) & (keys.length - 1)) {
+			if (keys[slot] == key) return (V) values[slot];
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks if the map contains a key
+	 * @param  key  The key
+	 * @return  true if the map contains the key
+	 */
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+	
+	/**
+	 * Sets the value of a key, replacing the previous value
+	 * @param  key    The key
+	 * @param  value  The value
+	 */
+	public void put(long key, V value) {
+		if (value == null) throw new IllegalArgumentException("LongMap values cannot be null");
+		
+		int slot = slot(key, keys.length);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size * 2 > keys.length) grow();
+	}
+	
+	/**
+	 * Gets all keys in the map, in no particular order
+	 * @return  The keys
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int count = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (values[slot] != null) result[count++] = keys[slot];
+		}
+		return result;
+	}
+	
+	private void grow() {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] == null) continue;
+			
+			int slot = slot(oldKeys[i], keys.length);
+			while (values[slot] != null) slot = (slot + 1) & (keys.length - 1);
+			
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+	
+	private static int slot(long key, int capacity) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		return (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+	}
+}
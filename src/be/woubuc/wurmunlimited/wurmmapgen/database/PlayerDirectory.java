@@ -0,0 +1,139 @@
+package be.woubuc.wurmunlimited.wurmmapgen.database;
+
+import be.woubuc.wurmunlimited.wurmmapgen.Logger;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Resolves Wurm IDs to player names for all entity loaders. Small player tables are loaded completely the first time
+ * a name is needed, larger tables are loaded in chunks as the loaders ask for them. Each ID is only looked up in the
+ * database once per run.
+ */
+public final class PlayerDirectory {
+	
+	// Player tables up to this many rows are loaded completely on first use
+	private static final int fullLoadLimit = 100000;
+	
+	// Marks IDs that were looked up but do not belong to a player
+	private static final String unknownPlayer = new String("");
+	
+	private final DatabaseConnection players;
+	private final LongMap<String> names = new LongMap<>();
+	
+	private boolean initialised = false;
+	private boolean fullyLoaded = false;
+	
+	private int hitCount = 0;
+	private int missCount = 0;
+	private int queryCount = 0;
+	
+	/**
+	 * Initialises the directory
+	 * @param  players  The connection to wurmplayers.db
+	 */
+	PlayerDirectory(DatabaseConnection players) {
+		this.players = players;
+	}
+	
+	/**
+	 * Makes sure the names of the given IDs are loaded, using as few queries as possible. Call this before resolving
+	 * a large number of names one by one.
+	 * @param  wurmIds  The Wurm IDs
+	 */
+	public synchronized void preload(long[] wurmIds) {
+		initialise();
+		if (fullyLoaded) return;
+		
+		long[] missing = new long[wurmIds.length];
+		int missingCount = 0;
+		for (final long wurmId : wurmIds) {
+			if (!names.containsKey(wurmId)) missing[missingCount++] = wurmId;
+		}
+		
+		if (missingCount > 0) load(Arrays.copyOf(missing, missingCount));
+	}
+	
+	/**
+	 * Gets the name of a player
+	 * @param  wurmId  The Wurm ID of the player
+	 * @return  The name, or null if the ID does not belong to a player
+	 */
+	public synchronized String getName(long wurmId) {
+		initialise();
+		
+		String name = names.get(wurmId);
+		if (name != null || fullyLoaded) {
+			hitCount++;
+		} else {
+			missCount++;
+			load(new long[] { wurmId });
+			name = names.get(wurmId);
+		}
+		
+		return name == unknownPlayer ? null : name;
+	}
+	
+	/**
+	 * Logs how many names were resolved from memory, in verbose mode
+	 */
+	public synchronized void logStatistics() {
+		Logger.details("Player names: " + names.size() + " loaded in " + queryCount + " queries, "
+				+ hitCount + " hits, " + missCount + " misses" + (fullyLoaded ? " (fully loaded)" : ""));
+	}
+	
+	/**
+	 * Loads the complete player table if it is small enough
+	 */
+	private void initialise() {
+		if (initialised) return;
+		initialised = true;
+		
+		final String countQuery = "select count(*) as `COUNT` from `PLAYERS`;";
+		try (PreparedStatement statement = players.prepareStatement(countQuery);
+			 ResultSet resultSet = statement.executeQuery()) {
+			
+			queryCount++;
+			if (!resultSet.next() || resultSet.getInt("COUNT") > fullLoadLimit) return;
+		} catch (SQLException e) {
+			Logger.error("Could not count players: " + e.getMessage());
+			return;
+		}
+		
+		final String query = "select `WURMID`, `NAME` from `PLAYERS`;";
+		try (PreparedStatement statement = players.prepareStatement(query);
+			 ResultSet resultSet = statement.executeQuery()) {
+			
+			queryCount++;
+			while (resultSet.next()) names.put(resultSet.getLong("WURMID"), resultSet.getString("NAME"));
+			fullyLoaded = true;
+		} catch (SQLException e) {
+			Logger.error("Could not load player names: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Loads the names of the given IDs, and remembers which IDs are not players
+	 * @param  wurmIds  The Wurm IDs
+	 */
+	private void load(long[] wurmIds) {
+		DatabaseHandler.forEachIdChunk(wurmIds, (placeholders, ids) -> {
+			final String query = "select `WURMID`, `NAME` from `PLAYERS` where `WURMID` in (" + placeholders + ");";
+			
+			try (PreparedStatement statement = players.prepareStatement(query, ids);
+				 ResultSet resultSet = statement.executeQuery()) {
+				
+				queryCount++;
+				while (resultSet.next()) names.put(resultSet.getLong("WURMID"), resultSet.getString("NAME"));
+			} catch (SQLException e) {
+				Logger.error("Could not load player names: " + e.getMessage());
+			}
+		});
+		
+		for (final long wurmId : wurmIds) {
+			if (!names.containsKey(wurmId)) names.put(wurmId, unknownPlayer);
+		}
+	}
+}
@@ -2,15 +2,18 @@ package be.woubuc.wurmunlimited.wurmmapgen.database;
 
 public final class Portal {
 	
+	private long id;
 	private String name;
 	private int posX;
 	private int posY;
 	
+	public long getId() { return id; }
 	public String getName() { return name; }
 	public int getPosX() { return posX; }
 	public int getPosY() { return posY; }
 	
-	Portal(String name, int posX, int posY) {
+	Portal(long id, String name, int posX, int posY) {
+		this.id = id;
 		this.name = name;
 		this.posX = (int) Math.floor(posX / 4);
 		this.posY = (int) Math.floor(posY / 4);
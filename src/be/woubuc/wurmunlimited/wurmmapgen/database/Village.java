@@ -1,17 +1,12 @@
 package be.woubuc.wurmunlimited.wurmmapgen.database;
 
-import be.woubuc.wurmunlimited.wurmmapgen.Logger;
-import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
-
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Stack;
 
 public final class Village {
 	
-	private final int villageID;
-	
+	private int id;
 	private String villageName;
 	private String mayorName;
 	private String motto;
@@ -29,6 +24,7 @@ public final class Village {
 	private int tokenX = 0;
 	private int tokenY = 0;
 	
+	public int getId() { return id; }
 	public String getVillageName() { return villageName; }
 	public String getMayorName() { return mayorName; }
 	public String getMotto() { return motto; }
@@ -46,66 +42,40 @@ public final class Village {
 	public int getTokenY() { return tokenY; }
 	
 	/**
-	 * Initialises a Village
-	 * @param villageID The db ID of the village
+	 * Initialises a Village from a row of the VILLAGES table
+	 * @param  resultSet  The result set, positioned on the village row
 	 */
-	Village(int villageID) {
-		this.villageID = villageID;
+	Village(ResultSet resultSet) throws SQLException {
+		id = resultSet.getInt("ID");
+		villageName = resultSet.getString("NAME");
+		mayorName = resultSet.getString("MAYOR");
+		motto = resultSet.getString("DEVISE");
 		
-		loadVillageData();
-		loadTokenData();
-		loadCitizenData();
+		startX = resultSet.getInt("STARTX");
+		startY = resultSet.getInt("STARTY");
+		endX = resultSet.getInt("ENDX");
+		endY = resultSet.getInt("ENDY");
+		tokenID = resultSet.getLong("TOKEN");
+		permanent = resultSet.getBoolean("PERMANENT");
 	}
 	
+	long getTokenID() { return tokenID; }
+	
 	/**
-	 * Loads the village data from the db
+	 * Sets the location of the village token
+	 * @param  posX  The X position of the token item
+	 * @param  posY  The Y position of the token item
 	 */
-	private void loadVillageData() {
-		final String query = "select " +
-				"`NAME`, `MAYOR`, `DEVISE`, `STARTX`, `STARTY`, `ENDX`, `ENDY`, `TOKEN`, `PERMANENT` " +
-				"from `VILLAGES` where `ID` = ?";
-		
-		try (PreparedStatement statement = WurmMapGen.db.getZones().prepareStatement(query, villageID);
-			 ResultSet resultSet = statement.executeQuery()) {
-			
-			if (resultSet.next()) {
-				villageName = resultSet.getString("NAME");
-				mayorName = resultSet.getString("MAYOR");
-				motto = resultSet.getString("DEVISE");
-				
-				startX = resultSet.getInt("STARTX");
-				startY = resultSet.getInt("STARTY");
-				endX = resultSet.getInt("ENDX");
-				endY = resultSet.getInt("ENDY");
-				tokenID = resultSet.getLong("TOKEN");
-				permanent = resultSet.getBoolean("PERMANENT");
-			}
-			
-		} catch (SQLException e) {
-			Logger.error("Could not load village data: " + e.getMessage());
-		}
+	void setTokenPosition(int posX, int posY) {
+		tokenX = (int) Math.floor(posX / 4);
+		tokenY = (int) Math.floor(posY / 4);
 	}
 	
 	/**
-	 * Loads the location of the village token from the db
+	 * If token location is invalid (outside of deed borders, or the token was not found), puts it in the center of
+	 * the deed
 	 */
-	private void loadTokenData() {
-		final String query = "select `POSX`, `POSY` from `ITEMS` where `WURMID` = ?";
-		
-		try (PreparedStatement statement = WurmMapGen.db.getItems().prepareStatement(query, tokenID);
-			 ResultSet resultSet = statement.executeQuery()) {
-			
-			if (resultSet.next()) {
-				tokenX = (int) Math.floor(resultSet.getInt("POSX") / 4);
-				tokenY = (int) Math.floor(resultSet.getInt("POSY") / 4);
-			}
-			
-		} catch (SQLException e) {
-			Logger.error("Could not load village token data: " + e.getMessage());
-			return;
-		}
-		
-		// If token location is invalid (outside of deed borders), put it in the center of the deed
+	void validateTokenPosition() {
 		if (tokenX < startX || tokenY < startY || tokenX > endX || tokenY > endY) {
 			tokenX = (startX + endX) / 2;
 			tokenY = (startY + endY) / 2;
@@ -113,36 +83,11 @@ public final class Village {
 	}
 	
 	/**
-	 * Loads the number of citizens from the db
+	 * Adds a citizen to the village
+	 * @param  name  The name of the citizen
 	 */
-	private void loadCitizenData() {
-		final String citizenQuery = "select `WURMID` from `CITIZENS` where `VILLAGEID` = ?";
-		final String playerQuery = "select `NAME`, `WURMID` from `PLAYERS` where `WURMID` = ?";
-		
-		// First, get the wurmids from all citizens
-		try (PreparedStatement citizenStatement = WurmMapGen.db.getZones().prepareStatement(citizenQuery, villageID);
-			 ResultSet citizenResultSet = citizenStatement.executeQuery()) {
-			
-			while (citizenResultSet.next()) {
-				long citizenId = citizenResultSet.getLong("WURMID");
-				
-				// Then, check if a player with that wurmid exists (to avoid counting guards etc)
-				try (PreparedStatement playerStatement = WurmMapGen.db.getPlayers().prepareStatement(playerQuery, citizenId);
-					 ResultSet playerResultSet = playerStatement.executeQuery()) {
-					
-					if (playerResultSet.next()) {
-						String citizenName = playerResultSet.getString("NAME");
-						citizenNames.add(citizenName);
-						citizenCount++;
-					}
-					
-				} catch (SQLException e) {
-					Logger.error("Could not load citizen player data: " + e.getMessage());
-				}
-			}
-			
-		} catch (SQLException e) {
-			Logger.error("Could not load citizen data: " + e.getMessage());
-		}
+	void addCitizen(String name) {
+		citizenNames.add(name);
+		citizenCount++;
 	}
 }
@@ -24,18 +24,12 @@ public final class ConfigFileGen extends FileGen {
 		// Prepare config variables
 		int mapSize = WurmMapGen.tileMapGenerator.map.getSize();
 		int maxMapSize = mapSize * 8;
-		int nativeZoom = 0;
+		int minNativeZoom = WurmMapGen.tileMapGenerator.getMinNativeZoom();
+		int maxNativeZoom = WurmMapGen.tileMapGenerator.getMaxNativeZoom();
 		int maxZoom = 0;
 		int minZoom = 0;
 		
 		int count = 0;
-		for (int i = mapSize; i > WurmMapGen.properties.mapTileSize; i++) {
-			i = (i/2);
-			nativeZoom = count;
-			count++;
-		}
-		
-		count = 0;
 		for (int i = maxMapSize; i > WurmMapGen.properties.mapTileSize; i++) {
 			i = (i/2);
 			maxZoom = count;
@@ -47,18 +41,36 @@ public final class ConfigFileGen extends FileGen {
 		JSONObject configObject = new JSONObject();
 		JSONObject config = new JSONObject();
 		
-		config.put("nativeZoom", nativeZoom);
+		config.put("nativeZoom", maxNativeZoom);
+		config.put("minNativeZoom", minNativeZoom);
+		config.put("maxNativeZoom", maxNativeZoom);
 		config.put("mapMinZoom", minZoom);
 		config.put("mapMaxZoom", maxZoom);
 		config.put("actualMapSize", mapSize);
 		config.put("maxMapSize", maxMapSize);
 		config.put("mapTileSize", WurmMapGen.properties.mapTileSize);
+		config.put("mapTileUrl", WurmMapGen.properties.mapOutputMode.equals("archive")
+				? "includes/tiles.php?z={z}&x={x}&y={y}"
+				: "images/{z}/{x}/{y}.png");
 		
 		config.put("markerType", WurmMapGen.properties.markerType);
+		config.put("realtimeFeed", WurmMapGen.realtimeMode);
+		config.put("realtimeInterval", WurmMapGen.properties.realtimeInterval);
 		
 		config.put("showDeeds", WurmMapGen.properties.showDeeds);
 		config.put("showGuardTowers", WurmMapGen.properties.showGuardTowers);
 		config.put("showStructures", WurmMapGen.properties.showStructures);
+		config.put("showPortals", WurmMapGen.properties.showPortals);
+		
+		config.put("dataChunkSize", WurmMapGen.properties.dataChunkSize);
+		
+		// Versions of the layer data, which change only when the data changes
+		JSONObject versions = new JSONObject();
+		if (WurmMapGen.properties.showDeeds) versions.put("villages", getLayerVersion("villages"));
+		if (WurmMapGen.properties.showGuardTowers) versions.put("guardtowers", getLayerVersion("guardtowers"));
+		if (WurmMapGen.properties.showStructures) versions.put("structures", getLayerVersion("structures"));
+		if (WurmMapGen.properties.showPortals) versions.put("portals", getLayerVersion("portals"));
+		config.put("versions", versions);
 		
 		configObject.put("config", config);
 		
@@ -0,0 +1,190 @@
+package be.woubuc.wurmunlimited.wurmmapgen.filegen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the entities of a map layer into square areas of the map, so the map only has to load the entities in view.
+ * Each chunk is written to {layer}/{x}-{y}.json as an array of entities, and {layer}/index.json lists the chunks with
+ * the area their entities cover.
+ */
+final class DataChunkWriter {
+	
+	// Maximum number of chunk files that are open at the same time
+	private static final int maxOpenChunks = 32;
+	
+	private final Path directory;
+	private final int chunkSize;
+	
+	private final Map<Long, Chunk> chunks = new LinkedHashMap<>();
+	private final LinkedHashMap<Long, Chunk> openChunks = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * Initialises the writer
+	 * @param  directory  The directory of the layer, created if it doesn't exist
+	 * @param  chunkSize  The width and height of a chunk, in tiles
+	 */
+	DataChunkWriter(Path directory, int chunkSize) throws IOException {
+		this.directory = directory;
+		this.chunkSize = chunkSize;
+		
+		Files.createDirectories(directory);
+	}
+	
+	/**
+	 * Adds an entity to the chunk that contains its position
+	 * @param  x        The X coordinate of the entity (e.g. its marker), which decides the chunk
+	 * @param  y        The Y coordinate of the entity
+	 * @param  borders  The area covered by the entity (min X, min Y, max X, max Y)
+	 * @return  The writer the entity should be written to, as a single object
+	 */
+	JsonStreamWriter add(int x, int y, int... borders) throws IOException {
+		final int chunkX = Math.max(0, x / chunkSize);
+		final int chunkY = Math.max(0, y / chunkSize);
+		final long key = ((long) chunkX << 32) | chunkY;
+		
+		Chunk chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = new Chunk(chunkX, chunkY, x, y);
+			chunks.put(key, chunk);
+		}
+		
+		chunk.include(x, y);
+		if (borders.length == 4) {
+			chunk.include(borders[0], borders[1]);
+			chunk.include(borders[2], borders[3]);
+		}
+		
+		open(key, chunk);
+		chunk.count++;
+		return chunk.json;
+	}
+	
+	/**
+	 * Completes all chunk files, removes the chunk files of previous runs that are no longer used, and writes the index
+	 */
+	void close() throws IOException {
+		Set<String> fileNames = new HashSet<>();
+		int changed = 0;
+		
+		for (Chunk chunk : chunks.values()) {
+			if (chunk.writer == null) {
+				chunk.writer = Files.newBufferedWriter(chunk.getTempPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			}
+			chunk.writer.write(']');
+			chunk.writer.close();
+			chunk.writer = null;
+			
+			if (FileGen.replaceIfChanged(chunk.getTempPath(), chunk.getPath())) changed++;
+			fileNames.add(chunk.getPath().getFileName().toString());
+		}
+		openChunks.clear();
+		
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*-*.json")) {
+			for (Path file : files) {
+				if (!fileNames.contains(file.getFileName().toString())) Files.delete(file);
+			}
+		}
+		
+		final Path indexPath = directory.resolve("index.json");
+		final Path tempPath = directory.resolve("index.json.tmp");
+		try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+			JsonStreamWriter json = new JsonStreamWriter(writer);
+			json.beginObject();
+			json.name("chunkSize").value(chunkSize);
+			json.name("chunks").beginArray();
+			
+			for (Chunk chunk : chunks.values()) {
+				json.beginObject();
+				json.name("x").value(chunk.x);
+				json.name("y").value(chunk.y);
+				json.name("bounds").value(chunk.minX, chunk.minY, chunk.maxX, chunk.maxY);
+				json.name("count").value(chunk.count);
+				json.endObject();
+			}
+			
+			json.endArray().endObject();
+		}
+		FileGen.replaceIfChanged(tempPath, indexPath);
+		
+		Logger.ok("Split into " + chunks.size() + " chunks, " + changed + " changed", true);
+	}
+	
+	/**
+	 * Makes sure the file of a chunk is open, closing the least recently used chunk file if too many are open
+	 */
+	private void open(long key, Chunk chunk) throws IOException {
+		if (openChunks.get(key) != null) return;
+		
+		if (openChunks.size() >= maxOpenChunks) {
+			Iterator<Chunk> iterator = openChunks.values().iterator();
+			Chunk eldest = iterator.next();
+			iterator.remove();
+			
+			eldest.writer.close();
+			eldest.writer = null;
+		}
+		
+		if (chunk.count == 0) {
+			chunk.writer = Files.newBufferedWriter(chunk.getTempPath(), StandardCharsets.UTF_8);
+			chunk.writer.write('[');
+		} else {
+			// A new stream writer doesn't know about the entities written before the file was closed
+			chunk.writer = Files.newBufferedWriter(chunk.getTempPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			chunk.writer.write(',');
+		}
+		
+		chunk.json = new JsonStreamWriter(chunk.writer);
+		openChunks.put(key, chunk);
+	}
+	
+	private final class Chunk {
+		
+		private final int x;
+		private final int y;
+		
+		private int minX;
+		private int minY;
+		private int maxX;
+		private int maxY;
+		private int count = 0;
+		
+		private Writer writer;
+		private JsonStreamWriter json;
+		
+		private Chunk(int x, int y, int posX, int posY) {
+			this.x = x;
+			this.y = y;
+			
+			minX = maxX = posX;
+			minY = maxY = posY;
+		}
+		
+		private void include(int posX, int posY) {
+			minX = Math.min(minX, posX);
+			minY = Math.min(minY, posY);
+			maxX = Math.max(maxX, posX);
+			maxY = Math.max(maxY, posY);
+		}
+		
+		private Path getPath() {
+			return directory.resolve(x + "-" + y + ".json");
+		}
+		
+		private Path getTempPath() {
+			return directory.resolve(x + "-" + y + ".json.tmp");
+		}
+	}
+}
@@ -1,33 +1,170 @@
 package be.woubuc.wurmunlimited.wurmmapgen.filegen;
 
 import be.woubuc.wurmunlimited.wurmmapgen.Logger;
-import org.apache.commons.io.FilenameUtils;
+import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 public abstract class FileGen {
 	
-	private String filePath;
-	void setFilePath(Path filePath) { this.filePath = filePath.toString(); }
+	private Path filePath;
+	void setFilePath(Path filePath) { this.filePath = filePath; }
 	
 	/**
-	 * Generates the file
+	 * Generates the file. The data is written to a temporary file first, which replaces the existing file when it is
+	 * complete, so the file is never served half-written.
 	 */
 	public void generateFile() throws IOException {
+		final Path tempPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+		
 		// Generate data
-		String data = generateData();
-		if (data == null) return;
+		boolean written;
+		try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+			written = writeData(writer);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tempPath);
+			throw e;
+		}
+		
+		if (!written) {
+			Files.deleteIfExists(tempPath);
+			return;
+		}
 		
-		// Write data to file
+		// Write data to file, unless it didn't change
 		Logger.details("Writing " + filePath);
-		FileWriter writer = new FileWriter(filePath, false);
+		if (replaceIfChanged(tempPath, filePath)) {
+			Logger.ok("Created " + filePath.getFileName());
+		} else {
+			Logger.ok(filePath.getFileName() + " is unchanged");
+		}
+	}
+	
+	/**
+	 * Writes the file data. Generators for large files should override this and write their data as it is loaded,
+	 * instead of building it in memory.
+	 * @param  writer  The buffered output
+	 * @return  false if there is no data and the file should not be written
+	 */
+	protected boolean writeData(Writer writer) throws IOException {
+		String data = generateData();
+		if (data == null) return false;
+		
 		writer.write(data);
-		writer.close();
+		return true;
+	}
+	
+	/**
+	 * Generates the file data
+	 * @return  The data, or null if the file should not be written
+	 */
+	protected String generateData() {
+		return null;
+	}
+	
+	/**
+	 * Formats a single entity as JSON, so it can be written to several files and compared with the previous run
+	 * @param  entity  The entity
+	 * @param  format  Writes the entity
+	 * @return  The formatted entity
+	 */
+	static <T> String format(T entity, EntityFormat<T> format) throws IOException {
+		StringWriter writer = new StringWriter();
+		format.write(new JsonStreamWriter(writer), entity);
+		return writer.toString();
+	}
+	
+	/**
+	 * Opens the delta of a map layer, in data/deltas/{layer}
+	 * @param  layer  The name of the layer
+	 * @return  The delta
+	 */
+	LayerDelta openDelta(String layer) throws IOException {
+		return new LayerDelta(Paths.get(WurmMapGen.dataPath, "deltas", layer));
+	}
+	
+	/**
+	 * Writes the data of a map layer without entities. Used when all entities of a layer were removed, so the old data
+	 * file doesn't stay in place next to a delta that removes them.
+	 * @param  writer  The output
+	 * @param  layer   The name of the layer
+	 */
+	static void writeEmptyLayer(Writer writer, String layer) throws IOException {
+		new JsonStreamWriter(writer).beginObject().name(layer).beginArray().endArray().endObject();
+	}
+	
+	/**
+	 * Gets the current version of a map layer
+	 * @param  layer  The name of the layer
+	 * @return  The version, or 0 if the layer has not been generated
+	 */
+	static int getLayerVersion(String layer) {
+		return LayerDelta.readVersion(Paths.get(WurmMapGen.dataPath, "deltas", layer));
+	}
+	
+	/**
+	 * Moves a newly written file in place of an existing file, unless both have the same content. Unchanged files are
+	 * left alone so they keep their modification time, and browsers and caches don't download them again.
+	 * @param  tempPath  The newly written file
+	 * @param  path      The existing file
+	 * @return  true if the file was replaced
+	 */
+	static boolean replaceIfChanged(Path tempPath, Path path) throws IOException {
+		if (Files.exists(path) && Files.size(path) == Files.size(tempPath)
+				&& Arrays.equals(hash(path), hash(tempPath))) {
+			Files.delete(tempPath);
+			return false;
+		}
 		
-		Logger.ok("Created " + FilenameUtils.getName(filePath));
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+		return true;
+	}
+	
+	private static byte[] hash(Path path) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		final byte[] buffer = new byte[8192];
+		try (InputStream input = Files.newInputStream(path)) {
+			int read;
+			while ((read = input.read(buffer)) != -1) digest.update(buffer, 0, read);
+		}
+		return digest.digest();
+	}
+	
+	/**
+	 * Writes an entity of a map layer
+	 * @param  <T>  The entity type
+	 */
+	@FunctionalInterface
+	interface EntityFormat<T> {
+		void write(JsonStreamWriter json, T entity) throws IOException;
+	}
+	
+	/**
+	 * Opens a writer that splits the entities of a map layer into chunks, in data/chunks/{layer}
+	 * @param  layer  The name of the layer
+	 * @return  The chunk writer, or null if the data should not be split
+	 */
+	DataChunkWriter openChunks(String layer) throws IOException {
+		final int chunkSize = WurmMapGen.properties.dataChunkSize;
+		if (chunkSize == 0) return null;
+		
+		return new DataChunkWriter(Paths.get(WurmMapGen.dataPath, "chunks", layer), chunkSize);
 	}
-
-	protected abstract String generateData();
 }
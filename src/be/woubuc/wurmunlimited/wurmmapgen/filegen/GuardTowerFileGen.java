@@ -3,9 +3,9 @@ package be.woubuc.wurmunlimited.wurmmapgen.filegen;
 import be.woubuc.wurmunlimited.wurmmapgen.Logger;
 import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
 import be.woubuc.wurmunlimited.wurmmapgen.database.GuardTower;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -22,45 +22,55 @@ public final class GuardTowerFileGen extends FileGen {
 	 * Generates a JSON file containing all guard towers on the server, and writes it to the given file path.
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
-	protected String generateData() {
+	protected boolean writeData(Writer writer) throws IOException {
 		Logger.title("Guard tower data");
 		
 		ArrayList<GuardTower> guardTowers = WurmMapGen.db.getGuardTowers();
+		DataChunkWriter chunks = openChunks("guardtowers");
+		LayerDelta delta = openDelta("guardtowers");
 		
 		if (guardTowers.size() == 0) {
+			if (chunks != null) chunks.close();
+			final boolean changed = delta.close() != delta.getPreviousVersion();
 			Logger.custom("SKIP", "No guard towers found");
-			return null;
+			if (!changed) return false;
+			
+			// The layer had guard towers before, replace its data so a full load doesn't show them anymore
+			writeEmptyLayer(writer, "guardtowers");
+			return true;
 		}
 		
-		// Prepare JSON objects
-		JSONObject dataObject = new JSONObject();
-		JSONArray data = new JSONArray();
+		JsonStreamWriter json = new JsonStreamWriter(writer);
+		json.beginObject().name("guardtowers").beginArray();
 		
-		JSONObject towerData;
-		JSONArray towerBorders;
 		for (final GuardTower guardTower : guardTowers) {
-			towerData = new JSONObject();
-			towerBorders = new JSONArray();
-			
-			towerBorders.put(guardTower.getMinX());
-			towerBorders.put(guardTower.getMinY());
-			towerBorders.put(guardTower.getMaxX());
-			towerBorders.put(guardTower.getMaxY());
-			towerData.put("borders", towerBorders);
-			
-			towerData.put("x", guardTower.getPosX());
-			towerData.put("y", guardTower.getPosY());
-			
-			towerData.put("creator", guardTower.getOwnerName());
-			towerData.put("ql", decimalFormat.format(guardTower.getQl()));
-			towerData.put("dmg", decimalFormat.format(guardTower.getDmg()));
+			final String entity = format(guardTower, this::writeGuardTower);
+			json.rawValue(entity);
+			delta.add(guardTower.getId(), entity);
 			
-			data.put(towerData);
+			if (chunks != null) {
+				chunks.add(guardTower.getPosX(), guardTower.getPosY(),
+						guardTower.getMinX(), guardTower.getMinY(), guardTower.getMaxX(), guardTower.getMaxY()).rawValue(entity);
+			}
 		}
 		
-		dataObject.put("guardtowers", data);
+		json.endArray().endObject();
+		if (chunks != null) chunks.close();
+		delta.close();
+		return true;
+	}
+	
+	private void writeGuardTower(JsonStreamWriter json, GuardTower guardTower) throws IOException {
+		json.beginObject();
+		json.name("id").value(Long.toString(guardTower.getId()));
+		json.name("borders").value(guardTower.getMinX(), guardTower.getMinY(), guardTower.getMaxX(), guardTower.getMaxY());
+		
+		json.name("x").value(guardTower.getPosX());
+		json.name("y").value(guardTower.getPosY());
 		
-		return dataObject.toString();
+		json.name("creator").value(guardTower.getOwnerName());
+		json.name("ql").value(decimalFormat.format(guardTower.getQl()));
+		json.name("dmg").value(decimalFormat.format(guardTower.getDmg()));
+		json.endObject();
 	}
 }
@@ -0,0 +1,177 @@
+package be.woubuc.wurmunlimited.wurmmapgen.filegen;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes a JSON document incrementally, so large data files never have to be held in memory as a whole. Values are
+ * formatted the same way org.json formats them, and like org.json, names with a null string value are left out.
+ */
+public final class JsonStreamWriter {
+	
+	private final Writer writer;
+	
+	// For each open object or array, whether it already contains a value
+	private boolean[] hasValue = new boolean[8];
+	private int depth = 0;
+	
+	// Name of the next value, written together with the value so it can be left out if the value is null
+	private String pendingName = null;
+	
+	/**
+	 * Initialises the writer
+	 * @param  writer  The output, should be buffered
+	 */
+	public JsonStreamWriter(Writer writer) {
+		this.writer = writer;
+	}
+	
+	/**
+	 * Starts an object
+	 */
+	public JsonStreamWriter beginObject() throws IOException {
+		return open('{');
+	}
+	
+	/**
+	 * Ends the current object
+	 */
+	public JsonStreamWriter endObject() throws IOException {
+		return close('}');
+	}
+	
+	/**
+	 * Starts an array
+	 */
+	public JsonStreamWriter beginArray() throws IOException {
+		return open('[');
+	}
+	
+	/**
+	 * Ends the current array
+	 */
+	public JsonStreamWriter endArray() throws IOException {
+		return close(']');
+	}
+	
+	/**
+	 * Writes the name of the next value in the current object
+	 * @param  name  The name
+	 */
+	public JsonStreamWriter name(String name) throws IOException {
+		if (pendingName != null) throw new IllegalStateException("Expected a value for " + pendingName);
+		pendingName = name;
+		return this;
+	}
+	
+	/**
+	 * Writes a string value
+	 * @param  value  The value, or null to leave out the name (in an array, null is written)
+	 */
+	public JsonStreamWriter value(String value) throws IOException {
+		if (value == null && pendingName != null) {
+			pendingName = null;
+			return this;
+		}
+		return raw(value == null ? "null" : JSONObject.quote(value));
+	}
+	
+	/**
+	 * Writes a number value
+	 * @param  value  The value
+	 */
+	public JsonStreamWriter value(long value) throws IOException {
+		return raw(Long.toString(value));
+	}
+	
+	/**
+	 * Writes a number value
+	 * @param  value  The value
+	 */
+	public JsonStreamWriter value(double value) throws IOException {
+		return raw(JSONObject.numberToString(value));
+	}
+	
+	/**
+	 * Writes a boolean value
+	 * @param  value  The value
+	 */
+	public JsonStreamWriter value(boolean value) throws IOException {
+		return raw(Boolean.toString(value));
+	}
+	
+	/**
+	 * Writes an array of strings
+	 * @param  values  The values
+	 */
+	public JsonStreamWriter value(String[] values) throws IOException {
+		beginArray();
+		for (String value : values) value(value);
+		return endArray();
+	}
+	
+	/**
+	 * Writes an array of numbers
+	 * @param  values  The values
+	 */
+	public JsonStreamWriter value(int... values) throws IOException {
+		beginArray();
+		for (int value : values) value(value);
+		return endArray();
+	}
+	
+	/**
+	 * Writes a value that is already formatted as JSON
+	 * @param  json  The formatted value
+	 */
+	public JsonStreamWriter rawValue(String json) throws IOException {
+		return raw(json);
+	}
+	
+	/**
+	 * Writes the buffered output
+	 */
+	public void flush() throws IOException {
+		writer.flush();
+	}
+	
+	private JsonStreamWriter open(char bracket) throws IOException {
+		separate();
+		writer.write(bracket);
+		
+		if (++depth == hasValue.length) hasValue = Arrays.copyOf(hasValue, depth * 2);
+		hasValue[depth] = false;
+		return this;
+	}
+	
+	private JsonStreamWriter close(char bracket) throws IOException {
+		if (depth == 0) throw new IllegalStateException("No open object or array to close");
+		
+		writer.write(bracket);
+		depth--;
+		return this;
+	}
+	
+	private JsonStreamWriter raw(String value) throws IOException {
+		separate();
+		writer.write(value);
+		return this;
+	}
+	
+	/**
+	 * Writes a comma if the next value is not the first in its object or array, followed by the name of the value
+	 */
+	private void separate() throws IOException {
+		if (hasValue[depth]) writer.write(',');
+		hasValue[depth] = true;
+		
+		if (pendingName != null) {
+			writer.write(JSONObject.quote(pendingName));
+			writer.write(':');
+			pendingName = null;
+		}
+	}
+}
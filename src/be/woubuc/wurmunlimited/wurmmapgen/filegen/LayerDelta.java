@@ -0,0 +1,212 @@
+package be.woubuc.wurmunlimited.wurmmapgen.filegen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.Logger;
+import be.woubuc.wurmunlimited.wurmmapgen.database.LongMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the entities of a map layer with the previous run, so clients that have the previous version of the layer
+ * can fetch only what changed. The version of the layer and a hash of each entity are kept in {layer}/state, the changes
+ * of each version are written to {layer}/{version}.json as the added, changed and removed entities.
+ */
+final class LayerDelta {
+	
+	// Number of versions for which the delta file is kept
+	private static final int keptDeltas = 8;
+	
+	private final Path directory;
+	private final int previousVersion;
+	private final LongMap<Long> previousHashes;
+	private final LongMap<Long> hashes = new LongMap<>();
+	
+	// Formatted entities, set to null when the delta would be as large as the full data
+	private List<String> added = new ArrayList<>();
+	private List<String> changed = new ArrayList<>();
+	private int changeCount = 0;
+	
+	/**
+	 * Initialises the delta, loading the state of the previous run
+	 * @param  directory  The directory of the layer, created if it doesn't exist
+	 */
+	LayerDelta(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		
+		int version = 0;
+		LongMap<Long> state = null;
+		try (BufferedReader reader = Files.newBufferedReader(directory.resolve("state"), StandardCharsets.UTF_8)) {
+			version = Integer.parseInt(reader.readLine());
+			state = new LongMap<>();
+			
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int separator = line.indexOf(' ');
+				state.put(Long.parseLong(line.substring(0, separator)), Long.parseUnsignedLong(line.substring(separator + 1), 16));
+			}
+		} catch (NoSuchFileException e) {
+			// First run, everything is new
+		} catch (RuntimeException e) {
+			Logger.warn("Could not read " + directory.resolve("state") + ", the layer data will be loaded in full");
+			state = null;
+		}
+		
+		previousVersion = version;
+		previousHashes = state;
+	}
+	
+	/**
+	 * Gets the version of the layer in the previous run
+	 * @return  The version, or 0 if the layer has not been generated
+	 */
+	int getPreviousVersion() {
+		return previousVersion;
+	}
+	
+	/**
+	 * Adds an entity of the current run
+	 * @param  id      The stable ID of the entity
+	 * @param  entity  The entity, formatted as JSON
+	 */
+	void add(long id, String entity) {
+		final long hash = hash(entity);
+		hashes.put(id, hash);
+		
+		if (previousHashes == null) return;
+		
+		final Long previousHash = previousHashes.get(id);
+		if (previousHash != null && previousHash == hash) return;
+		
+		changeCount++;
+		if (added == null) return;
+		
+		// Clients are better off loading the full data than a delta that contains most of it
+		if (changeCount > Math.max(64, previousHashes.size() / 2)) {
+			added = null;
+			changed = null;
+			return;
+		}
+		
+		if (previousHash == null) added.add(entity);
+		else changed.add(entity);
+	}
+	
+	/**
+	 * Writes the delta and the state of the current run, if anything changed
+	 * @return  The current version of the layer
+	 */
+	int close() throws IOException {
+		List<String> removed = new ArrayList<>();
+		if (previousHashes != null) {
+			for (long id : previousHashes.keys()) {
+				if (!hashes.containsKey(id)) removed.add(Long.toString(id));
+			}
+		}
+		
+		if (previousHashes != null && changeCount == 0 && removed.isEmpty()) {
+			Logger.ok("Unchanged since version " + previousVersion, true);
+			return previousVersion;
+		}
+		
+		final int version = previousVersion + 1;
+		
+		if (previousHashes != null && added != null) {
+			writeAtomically(directory.resolve(version + ".json"), writer -> {
+				JsonStreamWriter json = new JsonStreamWriter(writer);
+				json.beginObject();
+				json.name("from").value(previousVersion);
+				json.name("version").value(version);
+				
+				json.name("added").beginArray();
+				for (String entity : added) json.rawValue(entity);
+				json.endArray();
+				
+				json.name("changed").beginArray();
+				for (String entity : changed) json.rawValue(entity);
+				json.endArray();
+				
+				json.name("removed").value(removed.toArray(new String[0]));
+				json.endObject();
+			});
+			
+			Logger.ok("Version " + version + ": " + added.size() + " added, " + changed.size() + " changed, "
+					+ removed.size() + " removed", true);
+		} else {
+			Logger.ok("Version " + version + ", no delta from the previous version", true);
+		}
+		
+		writeAtomically(directory.resolve("state"), writer -> {
+			writer.write(Integer.toString(version));
+			writer.write('\n');
+			
+			for (long id : hashes.keys()) {
+				writer.write(Long.toString(id));
+				writer.write(' ');
+				writer.write(Long.toHexString(hashes.get(id)));
+				writer.write('\n');
+			}
+		});
+		
+		// Remove the deltas that are too old to be useful
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+			for (Path file : files) {
+				final String name = file.getFileName().toString();
+				try {
+					if (Integer.parseInt(name.substring(0, name.length() - 5)) <= version - keptDeltas) Files.delete(file);
+				} catch (NumberFormatException e) {
+					// Not a delta file
+				}
+			}
+		}
+		
+		return version;
+	}
+	
+	/**
+	 * Reads the current version of a layer
+	 * @param  directory  The directory of the layer
+	 * @return  The version, or 0 if the layer has not been generated
+	 */
+	static int readVersion(Path directory) {
+		try (BufferedReader reader = Files.newBufferedReader(directory.resolve("state"), StandardCharsets.UTF_8)) {
+			return Integer.parseInt(reader.readLine());
+		} catch (IOException | NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Hashes an entity with 64-bit FNV-1a, which is plenty to notice that an entity changed
+	 */
+	private static long hash(String entity) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < entity.length(); i++) {
+			hash ^= entity.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	private static void writeAtomically(Path path, FileContents contents) throws IOException {
+		final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+			contents.write(writer);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	@FunctionalInterface
+	private interface FileContents {
+		void write(Writer writer) throws IOException;
+	}
+}
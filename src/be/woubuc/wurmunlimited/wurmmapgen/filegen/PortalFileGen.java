@@ -3,9 +3,9 @@ package be.woubuc.wurmunlimited.wurmmapgen.filegen;
 import be.woubuc.wurmunlimited.wurmmapgen.Logger;
 import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
 import be.woubuc.wurmunlimited.wurmmapgen.database.Portal;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 
@@ -17,34 +17,47 @@ public final class PortalFileGen extends FileGen {
 	}
 	
 	@Override
-	@SuppressWarnings("unchecked")
-	protected String generateData() {
+	protected boolean writeData(Writer writer) throws IOException {
 		Logger.title("Portal data");
 		
 		// Load portals
 		ArrayList<Portal> portals = WurmMapGen.db.getPortals();
+		DataChunkWriter chunks = openChunks("portals");
+		LayerDelta delta = openDelta("portals");
 		
 		if (portals.size() == 0) {
+			if (chunks != null) chunks.close();
+			final boolean changed = delta.close() != delta.getPreviousVersion();
 			Logger.custom("SKIP", "No portals found");
-			return null;
+			if (!changed) return false;
+			
+			// The layer had portals before, replace its data so a full load doesn't show them anymore
+			writeEmptyLayer(writer, "portals");
+			return true;
 		}
-		// Prepare JSON objects
-		JSONObject dataObject = new JSONObject();
-		JSONArray data = new JSONArray();
 		
-		JSONObject portalData;
+		JsonStreamWriter json = new JsonStreamWriter(writer);
+		json.beginObject().name("portals").beginArray();
+		
 		for (final Portal portal : portals) {
-			portalData = new JSONObject();
-			
-			portalData.put("name", portal.getName());
-			portalData.put("x", portal.getPosX());
-			portalData.put("y", portal.getPosY());
-			
-			data.put(portalData);
+			final String entity = format(portal, PortalFileGen::writePortal);
+			json.rawValue(entity);
+			delta.add(portal.getId(), entity);
+			if (chunks != null) chunks.add(portal.getPosX(), portal.getPosY()).rawValue(entity);
 		}
 		
-		dataObject.put("portals", data);
-		
-		return dataObject.toString();
+		json.endArray().endObject();
+		if (chunks != null) chunks.close();
+		delta.close();
+		return true;
+	}
+	
+	private static void writePortal(JsonStreamWriter json, Portal portal) throws IOException {
+		json.beginObject();
+		json.name("id").value(Long.toString(portal.getId()));
+		json.name("name").value(portal.getName());
+		json.name("x").value(portal.getPosX());
+		json.name("y").value(portal.getPosY());
+		json.endObject();
 	}
 }
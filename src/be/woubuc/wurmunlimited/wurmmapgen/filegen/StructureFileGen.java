@@ -2,66 +2,73 @@ package be.woubuc.wurmunlimited.wurmmapgen.filegen;
 
 import be.woubuc.wurmunlimited.wurmmapgen.Logger;
 import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
-import be.woubuc.wurmunlimited.wurmmapgen.database.Village;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import be.woubuc.wurmunlimited.wurmmapgen.database.Structure;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 
-public final class VillageFileGen extends FileGen {
+public final class StructureFileGen extends FileGen {
 	
-	public VillageFileGen() {
-		setFilePath(Paths.get(WurmMapGen.dataPath, "villages.json"));
+	public StructureFileGen() {
+		setFilePath(Paths.get(WurmMapGen.dataPath, "structures.json"));
 	}
 	
-	@SuppressWarnings("unchecked")
-	protected String generateData() {
-		Logger.title("Village data");
+	/**
+	 * Generates a JSON file containing all finished structures on the server
+	 */
+	@Override
+	protected boolean writeData(Writer writer) throws IOException {
+		Logger.title("Structure data");
 		
-		// Load list of villages
-		ArrayList<Village> villages = WurmMapGen.db.getVillages();
+		JsonStreamWriter json = new JsonStreamWriter(writer);
+		json.beginObject().name("structures").beginArray();
+		DataChunkWriter chunks = openChunks("structures");
+		LayerDelta delta = openDelta("structures");
 		
-		// Stop right here if there are no villages on the server
-		if (villages.size() == 0) {
-			Logger.custom("SKIP", "No villages found");
-			return null;
+		// Write each structure as soon as it is loaded
+		final int count;
+		try {
+			count = WurmMapGen.db.forEachStructure(structure -> {
+				try {
+					final String entity = format(structure, StructureFileGen::writeStructure);
+					json.rawValue(entity);
+					delta.add(structure.getId(), entity);
+					
+					if (chunks != null) {
+						chunks.add(
+								(structure.getMinX() + structure.getMaxX()) / 2, (structure.getMinY() + structure.getMaxY()) / 2,
+								structure.getMinX(), structure.getMinY(), structure.getMaxX(), structure.getMaxY()).rawValue(entity);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
 		
-		// Prepare JSON objects
-		JSONObject dataObject = new JSONObject();
-		JSONArray data = new JSONArray();
+		if (chunks != null) chunks.close();
+		final boolean changed = delta.close() != delta.getPreviousVersion();
 		
-		JSONObject deedData;
-		JSONArray deedBorders;
-		
-		for (final Village village : villages) {
-			deedData = new JSONObject();
-			deedBorders = new JSONArray();
-			
-			deedBorders.put(village.getStartX());
-			deedBorders.put(village.getStartY());
-			deedBorders.put(village.getEndX());
-			deedBorders.put(village.getEndY());
-			deedData.put("borders", deedBorders);
-			
-			deedData.put("name", village.getVillageName());
-			deedData.put("motto", village.getMotto());
-			deedData.put("permanent", village.isPermanent());
-			
-			deedData.put("x", village.getTokenX() + 0.5);
-			deedData.put("y", village.getTokenY() + 0.5);
-			
-			deedData.put("mayor", village.getMayorName());
-			deedData.put("citizenCount", village.getCitizenCount());
-			deedData.put("citizenNames", village.getCitizenNames());
-			
-			data.put(deedData);
+		// Stop right here if there are no structures on the server, unless there were structures before: then the
+		// (empty) data has to replace the old data so a full load doesn't show them anymore
+		if (count == 0) {
+			Logger.custom("SKIP", "No structures found");
+			if (!changed) return false;
 		}
 		
-		dataObject.put("villages", data);
-		
-		return dataObject.toString();
+		json.endArray().endObject();
+		return true;
 	}
 	
+	private static void writeStructure(JsonStreamWriter json, Structure structure) throws IOException {
+		json.beginObject();
+		json.name("id").value(Long.toString(structure.getId()));
+		json.name("borders").value(structure.getMinX(), structure.getMinY(), structure.getMaxX(), structure.getMaxY());
+		json.name("name").value(structure.getStructureName());
+		json.name("creator").value(structure.getOwnerName());
+		json.endObject();
+	}
 }
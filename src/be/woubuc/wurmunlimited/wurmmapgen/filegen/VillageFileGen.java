@@ -3,9 +3,9 @@ package be.woubuc.wurmunlimited.wurmmapgen.filegen;
 import be.woubuc.wurmunlimited.wurmmapgen.Logger;
 import be.woubuc.wurmunlimited.wurmmapgen.WurmMapGen;
 import be.woubuc.wurmunlimited.wurmmapgen.database.Village;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 
@@ -15,53 +15,63 @@ public final class VillageFileGen extends FileGen {
 		setFilePath(Paths.get(WurmMapGen.dataPath, "villages.json"));
 	}
 	
-	@SuppressWarnings("unchecked")
-	protected String generateData() {
+	@Override
+	protected boolean writeData(Writer writer) throws IOException {
 		Logger.title("Village data");
 		
 		// Load list of villages
 		ArrayList<Village> villages = WurmMapGen.db.getVillages();
+		DataChunkWriter chunks = openChunks("villages");
+		LayerDelta delta = openDelta("villages");
 		
 		// Stop right here if there are no villages on the server
 		if (villages.size() == 0) {
+			if (chunks != null) chunks.close();
+			final boolean changed = delta.close() != delta.getPreviousVersion();
 			Logger.custom("SKIP", "No villages found");
-			return null;
+			if (!changed) return false;
+			
+			// The layer had villages before, replace its data so a full load doesn't show them anymore
+			writeEmptyLayer(writer, "villages");
+			return true;
 		}
 		
-		// Prepare JSON objects
-		JSONObject dataObject = new JSONObject();
-		JSONArray data = new JSONArray();
-		
-		JSONObject deedData;
-		JSONArray deedBorders;
+		JsonStreamWriter json = new JsonStreamWriter(writer);
+		json.beginObject().name("villages").beginArray();
 		
 		for (final Village village : villages) {
-			deedData = new JSONObject();
-			deedBorders = new JSONArray();
-			
-			deedBorders.put(village.getStartX());
-			deedBorders.put(village.getStartY());
-			deedBorders.put(village.getEndX());
-			deedBorders.put(village.getEndY());
-			deedData.put("borders", deedBorders);
-			
-			deedData.put("name", village.getVillageName());
-			deedData.put("motto", village.getMotto());
-			deedData.put("permanent", village.isPermanent());
-			
-			deedData.put("x", village.getTokenX() + 0.5);
-			deedData.put("y", village.getTokenY() + 0.5);
+			final String entity = format(village, VillageFileGen::writeVillage);
+			json.rawValue(entity);
+			delta.add(village.getId(), entity);
 			
-			deedData.put("mayor", village.getMayorName());
-			deedData.put("citizens", village.getCitizenCount());
-			deedData.put("citizenNames", new JSONArray(village.getCitizenNames()));
-			
-			data.put(deedData);
+			if (chunks != null) {
+				chunks.add(village.getTokenX(), village.getTokenY(),
+						village.getStartX(), village.getStartY(), village.getEndX(), village.getEndY()).rawValue(entity);
+			}
 		}
 		
-		dataObject.put("villages", data);
+		json.endArray().endObject();
+		if (chunks != null) chunks.close();
+		delta.close();
+		return true;
+	}
+	
+	private static void writeVillage(JsonStreamWriter json, Village village) throws IOException {
+		json.beginObject();
+		json.name("id").value(Integer.toString(village.getId()));
+		json.name("borders").value(village.getStartX(), village.getStartY(), village.getEndX(), village.getEndY());
+		
+		json.name("name").value(village.getVillageName());
+		json.name("motto").value(village.getMotto());
+		json.name("permanent").value(village.isPermanent());
+		
+		json.name("x").value(village.getTokenX() + 0.5);
+		json.name("y").value(village.getTokenY() + 0.5);
 		
-		return dataObject.toString();
+		json.name("mayor").value(village.getMayorName());
+		json.name("citizens").value(village.getCitizenCount());
+		json.name("citizenNames").value(village.getCitizenNames());
+		json.endObject();
 	}
 	
 }
@@ -0,0 +1,115 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+/**
+ * Integer alpha compositing on packed ARGB pixels.
+ *
+ * The lookup tables and the blending steps mirror the software loops Java2D uses to fill a non-premultiplied
+ * INT_ARGB raster with a translucent colour (SrcOver), so pixels composited here are byte-identical to pixels
+ * painted through Graphics2D.fillRect.
+ */
+public final class ArgbComposite {
+	
+	// mul8[a << 8 | b] = round(a * b / 255)
+	private static final byte[] mul8 = new byte[256 * 256];
+	
+	// div8[a << 8 | b] = round(b * 255 / a), clamped to 255
+	private static final byte[] div8 = new byte[256 * 256];
+	
+	static {
+		for (int i = 1; i < 256; i++) {
+			long inc = (i << 16) + (i << 8) + i;
+			long val = inc + (1 << 23);
+			for (int j = 1; j < 256; j++) {
+				mul8[(i << 8) | j] = (byte) (val >>> 24);
+				val += inc;
+			}
+		}
+		
+		for (int i = 1; i < 256; i++) {
+			long inc = ((0xffL << 24) + i / 2) / i;
+			long val = (1 << 23);
+			for (int j = 0; j < i; j++) {
+				div8[(i << 8) | j] = (byte) (val >>> 24);
+				val += inc;
+			}
+			for (int j = i; j < 256; j++) {
+				div8[(i << 8) | j] = (byte) 0xff;
+			}
+		}
+	}
+	
+	private ArgbComposite() { }
+	
+	/**
+	 * Multiplies two 8-bit values as if they were fractions of 255
+	 * @param  a  The first value (0 - 255)
+	 * @param  b  The second value (0 - 255)
+	 * @return  The product (0 - 255)
+	 */
+	public static int mul8(int a, int b) {
+		return mul8[(a << 8) | b] & 0xff;
+	}
+	
+	/**
+	 * Divides an 8-bit value by an 8-bit alpha value
+	 * @param  v  The value (0 - 255)
+	 * @param  a  The alpha value (0 - 255)
+	 * @return  The quotient, clamped to 255
+	 */
+	public static int div8(int v, int a) {
+		return div8[(a << 8) | v] & 0xff;
+	}
+	
+	/**
+	 * Converts a colour into the premultiplied form expected by {@link #srcOver}
+	 * @param  a  The alpha component (0 - 255)
+	 * @param  r  The red component (0 - 255)
+	 * @param  g  The green component (0 - 255)
+	 * @param  b  The blue component (0 - 255)
+	 * @return  The premultiplied ARGB value
+	 */
+	public static int premultiply(int a, int r, int g, int b) {
+		if (a != 0xff) {
+			r = mul8(a, r);
+			g = mul8(a, g);
+			b = mul8(a, b);
+		}
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+	
+	/**
+	 * Converts a non-premultiplied ARGB value into its premultiplied form
+	 * @param  argb  The ARGB value
+	 * @return  The premultiplied ARGB value
+	 */
+	public static int premultiply(int argb) {
+		return premultiply(argb >>> 24, (argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff);
+	}
+	
+	/**
+	 * Composites a premultiplied source colour over a non-premultiplied destination pixel
+	 * @param  dst     The destination pixel (non-premultiplied ARGB)
+	 * @param  srcPre  The source colour (premultiplied ARGB, see {@link #premultiply})
+	 * @return  The resulting pixel (non-premultiplied ARGB)
+	 */
+	public static int srcOver(int dst, int srcPre) {
+		final int srcA = srcPre >>> 24;
+		if (srcA == 0) return dst;
+		if (srcA == 0xff) return srcPre;
+		
+		final int dstA = mul8(0xff - srcA, dst >>> 24);
+		final int resA = srcA + dstA;
+		
+		int resR = ((srcPre >> 16) & 0xff) + mul8(dstA, (dst >> 16) & 0xff);
+		int resG = ((srcPre >> 8) & 0xff) + mul8(dstA, (dst >> 8) & 0xff);
+		int resB = (srcPre & 0xff) + mul8(dstA, dst & 0xff);
+		
+		if (resA < 0xff) {
+			resR = div8(resR, resA);
+			resG = div8(resG, resA);
+			resB = div8(resB, resA);
+		}
+		
+		return (resA << 24) | (resR << 16) | (resG << 8) | resB;
+	}
+}
@@ -0,0 +1,78 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores each image tile in its own file, as {zoom}/{x}/{y}.png
+ */
+public final class FileTileSink implements TileSink {
+	
+	private final Path directory;
+	
+	/**
+	 * Initialises the sink
+	 * @param  directory  The directory to store the tiles in
+	 */
+	public FileTileSink(Path directory) {
+		this.directory = directory;
+	}
+	
+	@Override
+	public void prepare(int zoom, int tileCount) throws IOException {
+		for (int x = 0; x < tileCount; x++) {
+			Files.createDirectories(getTilePath(zoom, x, 0).getParent());
+		}
+	}
+	
+	@Override
+	public boolean contains(int zoom, int x, int y) {
+		return Files.exists(getTilePath(zoom, x, y));
+	}
+	
+	/**
+	 * Writes a tile to a temporary file that replaces the existing tile, so a tile is never served half-written and an
+	 * existing tile file that is shared with another output directory is not changed
+	 */
+	@Override
+	public void write(int zoom, int x, int y, byte[] data, int length) throws IOException {
+		final Path path = getTilePath(zoom, x, y);
+		final Path tempPath = path.resolveSibling(y + ".png.tmp");
+		
+		try (OutputStream output = Files.newOutputStream(tempPath)) {
+			output.write(data, 0, length);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	@Override
+	public InputStream read(int zoom, int x, int y) throws IOException {
+		try {
+			return Files.newInputStream(getTilePath(zoom, x, y));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+	
+	@Override
+	public void flush() { }
+	
+	@Override
+	public void close() { }
+	
+	/**
+	 * Gets the path of an image tile
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  The path of the image file
+	 */
+	public Path getTilePath(int zoom, int x, int y) {
+		return directory.resolve(Integer.toString(zoom)).resolve(Integer.toString(x)).resolve(y + ".png");
+	}
+}
@@ -0,0 +1,53 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes image tiles as 32-bit ARGB PNG files through the ImageIO PNG writer
+ */
+public final class ImageIoTileEncoder implements TileEncoder {
+	
+	private final BufferedImage image;
+	private final int[] imagePixels;
+	private final ImageWriter writer;
+	
+	/**
+	 * Initialises the encoder
+	 * @param  tileSize  The width and height of an image tile
+	 */
+	public ImageIoTileEncoder(int tileSize) {
+		this.image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+		this.imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		this.writer = ImageIO.getImageWritersByFormatName("png").next();
+	}
+	
+	@Override
+	public void encode(int[] pixels, int size, OutputStream output) throws IOException {
+		System.arraycopy(pixels, 0, imagePixels, 0, size * size);
+		
+		try (ImageOutputStream imageOutput = new MemoryCacheImageOutputStream(output)) {
+			writer.setOutput(imageOutput);
+			writer.write(null, new IIOImage(image, null, null), null);
+			writer.setOutput(null);
+		}
+	}
+	
+	@Override
+	public long getBufferSize() {
+		// The buffers of the ImageIO writer itself are not exposed
+		return (long) imagePixels.length * 4;
+	}
+	
+	@Override
+	public void dispose() {
+		writer.dispose();
+	}
+}
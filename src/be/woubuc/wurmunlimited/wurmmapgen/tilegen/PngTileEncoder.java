@@ -0,0 +1,347 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes image tiles as PNG files without going through ImageIO. Tiles with at most 256 distinct colours are written
+ * as 8-bit palette images, other tiles as RGB (or RGBA if they contain transparent pixels).
+ */
+public final class PngTileEncoder implements TileEncoder {
+	
+	private static final byte[] signature = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+	
+	private static final byte[] typeHeader = "IHDR".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] typePalette = "PLTE".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] typeTransparency = "tRNS".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] typeData = "IDAT".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] typeEnd = "IEND".getBytes(StandardCharsets.US_ASCII);
+	
+	private static final int colorTypeRgb = 2;
+	private static final int colorTypePalette = 3;
+	private static final int colorTypeRgba = 6;
+	
+	private static final int maxPaletteSize = 256;
+	
+	// Size of the colour lookup table, must be a power of 2 and well above the maximum palette size
+	private static final int colorTableSize = 1024;
+	
+	// Native memory held by the deflater, zlib's window and hash tables at the default window size and memory level
+	private static final int deflaterStateSize = 268 * 1024;
+	
+	/**
+	 * The PNG scanline filters. ADAPTIVE picks the filter with the smallest sum of absolute differences for each row.
+	 */
+	public enum Filter { NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE }
+	
+	private final Filter filter;
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	
+	// Reusable buffers, grown when needed
+	private final ChunkBuffer chunk = new ChunkBuffer();
+	private final byte[] deflateBuffer = new byte[16 * 1024];
+	private byte[] indexes = new byte[0];
+	private byte[] previousRow = new byte[0];
+	private byte[] currentRow = new byte[0];
+	private byte[][] filteredRows = new byte[5][0];
+	
+	private final int[] colorTableKeys = new int[colorTableSize];
+	private final int[] colorTableValues = new int[colorTableSize];
+	private final int[] palette = new int[maxPaletteSize];
+	private int paletteSize = 0;
+	
+	/**
+	 * Initialises the encoder
+	 * @param  compressionLevel  The deflate compression level (0 - 9)
+	 * @param  filter            The scanline filter to use for RGB(A) images, palette images are never filtered
+	 */
+	public PngTileEncoder(int compressionLevel, Filter filter) {
+		this.filter = filter;
+		this.deflater = new Deflater(compressionLevel);
+	}
+	
+	@Override
+	public void encode(int[] pixels, int size, OutputStream output) throws IOException {
+		final int pixelCount = size * size;
+		
+		boolean opaque = true;
+		for (int i = 0; i < pixelCount; i++) {
+			if ((pixels[i] >>> 24) != 0xff) {
+				opaque = false;
+				break;
+			}
+		}
+		
+		final boolean indexed = buildPalette(pixels, pixelCount);
+		final int colorType = indexed ? colorTypePalette : (opaque ? colorTypeRgb : colorTypeRgba);
+		final int bytesPerPixel = indexed ? 1 : (opaque ? 3 : 4);
+		
+		output.write(signature);
+		
+		chunk.reset();
+		chunk.writeInt(size);
+		chunk.writeInt(size);
+		chunk.write(8);         // bit depth
+		chunk.write(colorType);
+		chunk.write(0);         // compression method
+		chunk.write(0);         // filter method
+		chunk.write(0);         // interlace method
+		writeChunk(output, typeHeader);
+		
+		if (indexed) {
+			chunk.reset();
+			for (int i = 0; i < paletteSize; i++) {
+				chunk.write(palette[i] >> 16);
+				chunk.write(palette[i] >> 8);
+				chunk.write(palette[i]);
+			}
+			writeChunk(output, typePalette);
+			
+			if (!opaque) {
+				chunk.reset();
+				for (int i = 0; i < paletteSize; i++) {
+					chunk.write(palette[i] >>> 24);
+				}
+				writeChunk(output, typeTransparency);
+			}
+		}
+		
+		writeImageData(pixels, size, bytesPerPixel, indexed);
+		writeChunk(output, typeData);
+		
+		chunk.reset();
+		writeChunk(output, typeEnd);
+	}
+	
+	@Override
+	public long getBufferSize() {
+		long size = deflaterStateSize + chunk.array().length + deflateBuffer.length
+				+ indexes.length + previousRow.length + currentRow.length
+				+ (long) (colorTableKeys.length + colorTableValues.length + palette.length) * 4;
+		for (byte[] row : filteredRows) size += row.length;
+		return size;
+	}
+	
+	@Override
+	public void dispose() {
+		deflater.end();
+	}
+	
+	/**
+	 * Collects the distinct colours of an image tile into the palette, and stores the palette index of each pixel
+	 * @return  true if the tile has at most 256 colours and the palette could be built
+	 */
+	private boolean buildPalette(final int[] pixels, final int pixelCount) {
+		if (indexes.length < pixelCount) indexes = new byte[pixelCount];
+		Arrays.fill(colorTableValues, 0);
+		paletteSize = 0;
+		
+		int lastColor = 0;
+		int lastIndex = -1;
+		
+		for (int i = 0; i < pixelCount; i++) {
+			final int color = pixels[i];
+			
+			// Neighbouring pixels often have the same colour
+			if (color == lastColor && lastIndex >= 0) {
+				indexes[i] = (byte) lastIndex;
+				continue;
+			}
+			
+			int slot = (color * 0x9e3779b1) >>> (32 - Integer.numberOfTrailingZeros(colorTableSize));
+			while (colorTableValues[slot] != 0 && colorTableKeys[slot] != color) {
+				slot = (slot + 1) & (colorTableSize - 1);
+			}
+			
+			if (colorTableValues[slot] == 0) {
+				if (paletteSize == maxPaletteSize) return false;
+				
+				palette[paletteSize] = color;
+				colorTableKeys[slot] = color;
+				colorTableValues[slot] = ++paletteSize;
+			}
+			
+			lastColor = color;
+			lastIndex = colorTableValues[slot] - 1;
+			indexes[i] = (byte) lastIndex;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Filters and compresses the scanlines of the image into the chunk buffer
+	 */
+	private void writeImageData(final int[] pixels, final int size, final int bytesPerPixel, final boolean indexed) {
+		final int rowLength = size * bytesPerPixel;
+		if (currentRow.length < rowLength) {
+			currentRow = new byte[rowLength];
+			previousRow = new byte[rowLength];
+			for (int i = 0; i < filteredRows.length; i++) {
+				filteredRows[i] = new byte[rowLength + 1];
+			}
+		}
+		Arrays.fill(previousRow, 0, rowLength, (byte) 0);
+		
+		chunk.reset();
+		deflater.reset();
+		
+		for (int y = 0; y < size; y++) {
+			final int rowStart = y * size;
+			
+			if (indexed) {
+				System.arraycopy(indexes, rowStart, currentRow, 0, size);
+			} else {
+				int position = 0;
+				for (int x = 0; x < size; x++) {
+					final int pixel = pixels[rowStart + x];
+					currentRow[position++] = (byte) (pixel >> 16);
+					currentRow[position++] = (byte) (pixel >> 8);
+					currentRow[position++] = (byte) pixel;
+					if (bytesPerPixel == 4) currentRow[position++] = (byte) (pixel >>> 24);
+				}
+			}
+			
+			final byte[] filtered = filterRow(rowLength, bytesPerPixel, indexed ? Filter.NONE : filter);
+			deflate(filtered, rowLength + 1);
+			
+			final byte[] row = previousRow;
+			previousRow = currentRow;
+			currentRow = row;
+		}
+		
+		deflater.finish();
+		while (!deflater.finished()) {
+			final int length = deflater.deflate(deflateBuffer);
+			chunk.write(deflateBuffer, 0, length);
+		}
+	}
+	
+	private void deflate(final byte[] data, final int length) {
+		deflater.setInput(data, 0, length);
+		while (!deflater.needsInput()) {
+			final int compressed = deflater.deflate(deflateBuffer);
+			chunk.write(deflateBuffer, 0, compressed);
+		}
+	}
+	
+	/**
+	 * Applies a filter to the current row
+	 * @return  The filtered row, starting with the filter type byte
+	 */
+	private byte[] filterRow(final int rowLength, final int bytesPerPixel, final Filter rowFilter) {
+		if (rowFilter != Filter.ADAPTIVE) {
+			final byte[] filtered = filteredRows[rowFilter.ordinal()];
+			applyFilter(rowFilter, filtered, rowLength, bytesPerPixel);
+			return filtered;
+		}
+		
+		byte[] best = null;
+		long bestSum = Long.MAX_VALUE;
+		
+		for (final Filter candidate : Filter.values()) {
+			if (candidate == Filter.ADAPTIVE) continue;
+			
+			final byte[] filtered = filteredRows[candidate.ordinal()];
+			applyFilter(candidate, filtered, rowLength, bytesPerPixel);
+			
+			long sum = 0;
+			for (int i = 1; i <= rowLength; i++) {
+				sum += Math.abs((int) filtered[i]);
+			}
+			
+			if (sum < bestSum) {
+				bestSum = sum;
+				best = filtered;
+			}
+		}
+		
+		return best;
+	}
+	
+	private void applyFilter(final Filter rowFilter, final byte[] filtered, final int rowLength, final int bytesPerPixel) {
+		filtered[0] = (byte) rowFilter.ordinal();
+		
+		for (int i = 0; i < rowLength; i++) {
+			final int current = currentRow[i] & 0xff;
+			final int left = i >= bytesPerPixel ? currentRow[i - bytesPerPixel] & 0xff : 0;
+			final int up = previousRow[i] & 0xff;
+			final int upLeft = i >= bytesPerPixel ? previousRow[i - bytesPerPixel] & 0xff : 0;
+			
+			final int predicted;
+			switch (rowFilter) {
+				case SUB: predicted = left; break;
+				case UP: predicted = up; break;
+				case AVERAGE: predicted = (left + up) >> 1; break;
+				case PAETH: predicted = paeth(left, up, upLeft); break;
+				default: predicted = 0; break;
+			}
+			
+			filtered[i + 1] = (byte) (current - predicted);
+		}
+	}
+	
+	private static int paeth(final int left, final int up, final int upLeft) {
+		final int estimate = left + up - upLeft;
+		final int distanceLeft = Math.abs(estimate - left);
+		final int distanceUp = Math.abs(estimate - up);
+		final int distanceUpLeft = Math.abs(estimate - upLeft);
+		
+		if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) return left;
+		if (distanceUp <= distanceUpLeft) return up;
+		return upLeft;
+	}
+	
+	/**
+	 * Writes the contents of the chunk buffer as a PNG chunk
+	 * @param  output  The output stream
+	 * @param  type    The chunk type
+	 */
+	private void writeChunk(final OutputStream output, final byte[] type) throws IOException {
+		final int length = chunk.size();
+		output.write(length >>> 24);
+		output.write(length >>> 16);
+		output.write(length >>> 8);
+		output.write(length);
+		
+		crc.reset();
+		crc.update(type);
+		crc.update(chunk.array(), 0, length);
+		
+		output.write(type);
+		output.write(chunk.array(), 0, length);
+		
+		final int checksum = (int) crc.getValue();
+		output.write(checksum >>> 24);
+		output.write(checksum >>> 16);
+		output.write(checksum >>> 8);
+		output.write(checksum);
+	}
+	
+	/**
+	 * Byte buffer that exposes its array, so chunk data doesn't need to be copied
+	 */
+	private static final class ChunkBuffer extends ByteArrayOutputStream {
+		
+		private ChunkBuffer() {
+			super(64 * 1024);
+		}
+		
+		private byte[] array() {
+			return buf;
+		}
+		
+		private void writeInt(final int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+	}
+}
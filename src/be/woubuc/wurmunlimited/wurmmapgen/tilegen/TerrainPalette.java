@@ -0,0 +1,150 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.PropertiesManager;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.Tiles.Tile;
+
+import java.awt.Color;
+
+/**
+ * Colour and shading lookup tables for the terrain renderers. Everything that only depends on the tile type, the
+ * height difference between two tiles or the shading settings is computed once, so rendering a pixel comes down to
+ * a few table lookups.
+ */
+public final class TerrainPalette {
+	
+	// Largest possible height difference between two tiles (heights are stored as shorts)
+	private static final int maxHeightDelta = 0xffff;
+	
+	// Which tile types are seen as "path"
+	private static final byte[] pathTiles = {
+			Tiles.TILE_TYPE_COBBLESTONE,
+			Tiles.TILE_TYPE_COBBLESTONE_ROUND,
+			Tiles.TILE_TYPE_MARBLE_BRICKS,
+			Tiles.TILE_TYPE_MARBLE_SLABS,
+			Tiles.TILE_TYPE_SANDSTONE_BRICKS,
+			Tiles.TILE_TYPE_SANDSTONE_SLABS,
+			Tiles.TILE_TYPE_SLATE_BRICKS,
+			Tiles.TILE_TYPE_SLATE_SLABS,
+			Tiles.TILE_TYPE_STONE_SLABS};
+	
+	// Base colour of each tile type (ARGB), indexed by unsigned tile type
+	private final int[] colors = new int[256];
+	
+	// Bitmask of the path tile types, and of the tile types that should be shaded
+	private final long[] pathMask = new long[4];
+	private final long[] shadeMask = new long[4];
+	
+	// Premultiplied shadow (black) and highlight (white) overlays, indexed by height difference
+	private final int[] shadows;
+	private final int[] highlights;
+	
+	/**
+	 * Builds the lookup tables for the given settings
+	 * @param  properties  The properties containing the map generation settings
+	 */
+	public TerrainPalette(PropertiesManager properties) {
+		for (int type = 0; type < 256; type++) {
+			final Tile tile = Tiles.getTile(type);
+			if (tile == null) continue;
+			
+			final Color color = tile.getColor();
+			colors[type] = ArgbComposite.srcOver(0, ArgbComposite.premultiply(color.getRGB()));
+		}
+		
+		for (final byte type : pathTiles) {
+			setBit(pathMask, type);
+		}
+		
+		for (int type = 0; type < 256; type++) {
+			if (properties.mapGenerateShading && (properties.mapShadePaths || !isPath((byte) type))) {
+				setBit(shadeMask, (byte) type);
+			}
+		}
+		
+		shadows = buildShadingTable(0.95 * properties.mapShadingModifier, 0x00);
+		highlights = buildShadingTable(0.8 * properties.mapShadingModifier, 0xff);
+	}
+	
+	/**
+	 * Gets the base colour of a tile type
+	 * @param  type  The tile type
+	 * @return  The colour (non-premultiplied ARGB), or 0 (transparent) for unknown tile types
+	 */
+	public int getColor(byte type) {
+		return colors[type & 0xff];
+	}
+	
+	/**
+	 * Checks if a tile type is a path
+	 * @param  type  The tile type
+	 * @return  true if the tile type is a path
+	 */
+	public boolean isPath(byte type) {
+		return getBit(pathMask, type);
+	}
+	
+	/**
+	 * Checks if a tile of the given type should be shaded, based on the shading settings
+	 * @param  type  The tile type
+	 * @return  true if the tile should be shaded
+	 */
+	public boolean isShaded(byte type) {
+		return getBit(shadeMask, type);
+	}
+	
+	/**
+	 * Gets the shadow overlay for a tile that slopes down towards the next tile
+	 * @param  delta  The height difference with the next tile (> 0)
+	 * @return  The overlay colour (premultiplied ARGB)
+	 */
+	public int getShadow(int delta) {
+		return shadows[delta < shadows.length ? delta : shadows.length - 1];
+	}
+	
+	/**
+	 * Gets the highlight overlay for a tile that slopes up towards the next tile
+	 * @param  delta  The height difference with the next tile (>= 0)
+	 * @return  The overlay colour (premultiplied ARGB)
+	 */
+	public int getHighlight(int delta) {
+		return highlights[delta < highlights.length ? delta : highlights.length - 1];
+	}
+	
+	/**
+	 * Builds a shading table, containing the overlay colour for each height difference. The table stops at the first
+	 * height difference where the overlay becomes fully opaque, larger differences are clamped to the last entry.
+	 * @param  exponent  The shading exponent
+	 * @param  shade     The grey value of the overlay (0 for black, 255 for white)
+	 * @return  The shading table
+	 */
+	private static int[] buildShadingTable(double exponent, int shade) {
+		int[] table = new int[maxHeightDelta + 1];
+		int length = table.length;
+		
+		for (int delta = 0; delta < table.length; delta++) {
+			final long alpha = Math.round(Math.pow(delta, exponent));
+			final int clamped = (alpha > 255 || alpha < 0) ? 255 : (int) alpha;
+			table[delta] = ArgbComposite.premultiply(clamped, shade, shade, shade);
+			
+			if (exponent > 0 && clamped == 255) {
+				length = delta + 1;
+				break;
+			}
+		}
+		
+		if (length == table.length) return table;
+		
+		int[] trimmed = new int[length];
+		System.arraycopy(table, 0, trimmed, 0, length);
+		return trimmed;
+	}
+	
+	private static void setBit(long[] mask, byte type) {
+		mask[(type & 0xff) >>> 6] |= 1L << (type & 0x3f);
+	}
+	
+	private static boolean getBit(long[] mask, byte type) {
+		return (mask[(type & 0xff) >>> 6] & (1L << (type & 0x3f))) != 0;
+	}
+}
@@ -0,0 +1,207 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Stores all image tiles in a single SQLite file, using the MBTiles layout: a tiles table keyed on zoom level, column
+ * and row (rows are counted from the bottom of the map) and a metadata table. Writes are batched into transactions.
+ * An archive can also be opened read-only, to serve tiles from it.
+ */
+public final class TileArchive implements TileSink {
+	
+	// Number of tiles written in a single transaction
+	private static final int batchSize = 256;
+	
+	private final Connection connection;
+	private final boolean readOnly;
+	
+	private final PreparedStatement selectStatement;
+	private final PreparedStatement containsStatement;
+	private PreparedStatement insertStatement;
+	// Tiles in the current batch, which are not in the tiles table yet
+	private final Set<Long> pendingTiles = new HashSet<>();
+	
+	private TileArchive(Connection connection, boolean readOnly) throws SQLException {
+		this.connection = connection;
+		this.readOnly = readOnly;
+		
+		if (!readOnly) {
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("PRAGMA journal_mode = WAL");
+				statement.execute("PRAGMA synchronous = NORMAL");
+				statement.execute("CREATE TABLE IF NOT EXISTS metadata (name TEXT PRIMARY KEY, value TEXT)");
+				statement.execute("CREATE TABLE IF NOT EXISTS tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+				statement.execute("CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row)");
+			}
+			
+			connection.setAutoCommit(false);
+			insertStatement = connection.prepareStatement("INSERT OR REPLACE INTO tiles (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?)");
+		}
+		
+		selectStatement = connection.prepareStatement("SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+		containsStatement = connection.prepareStatement("SELECT 1 FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+	}
+	
+	/**
+	 * Opens a tile archive, creating it if it does not exist
+	 * @param  path      The archive file
+	 * @param  readOnly  true to open the archive for reading only
+	 * @return  The archive
+	 */
+	public static TileArchive open(Path path, boolean readOnly) throws IOException {
+		try {
+			Properties properties = new Properties();
+			if (readOnly) properties.setProperty("open_mode", "1");
+			
+			return new TileArchive(DriverManager.getConnection("jdbc:sqlite:" + path.toAbsolutePath(), properties), readOnly);
+		} catch (SQLException e) {
+			throw new IOException("Could not open tile archive " + path + ": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Copies an archive to a new file through the SQLite online backup API. The copy includes the changes that are
+	 * still in the write-ahead log of the source, and is a single file that never shares its -wal or -shm file with the
+	 * source. A published archive is only read, so the backup is not restarted by writes.
+	 * @param  source       The archive
+	 * @param  destination  The new archive file
+	 */
+	public static void copy(Path source, Path destination) throws IOException {
+		Files.deleteIfExists(destination);
+		
+		Properties properties = new Properties();
+		properties.setProperty("open_mode", "1");
+		
+		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + source.toAbsolutePath(), properties);
+			 Statement statement = connection.createStatement()) {
+			
+			statement.executeUpdate("backup to \"" + destination.toAbsolutePath() + "\"");
+		} catch (SQLException e) {
+			throw new IOException("Could not copy tile archive " + source + ": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Sets a metadata value (e.g. name, format, minzoom, maxzoom)
+	 * @param  name   The metadata name
+	 * @param  value  The value
+	 */
+	public synchronized void setMetadata(String name, String value) throws IOException {
+		try (PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO metadata (name, value) VALUES (?, ?)")) {
+			statement.setString(1, name);
+			statement.setString(2, value);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			throw new IOException("Could not write tile archive metadata: " + e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	public void prepare(int zoom, int tileCount) { }
+	
+	@Override
+	public synchronized boolean contains(int zoom, int x, int y) throws IOException {
+		if (pendingTiles.contains(getKey(zoom, x, y))) return true;
+		
+		try {
+			setKey(containsStatement, zoom, x, y);
+			try (ResultSet result = containsStatement.executeQuery()) {
+				return result.next();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not read tile archive: " + e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	public synchronized void write(int zoom, int x, int y, byte[] data, int length) throws IOException {
+		if (readOnly) throw new IOException("Tile archive is opened read-only");
+		
+		try {
+			setKey(insertStatement, zoom, x, y);
+			insertStatement.setBytes(4, Arrays.copyOf(data, length));
+			insertStatement.addBatch();
+			pendingTiles.add(getKey(zoom, x, y));
+			
+			if (pendingTiles.size() >= batchSize) flush();
+		} catch (SQLException e) {
+			throw new IOException("Could not write tile to archive: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Gets a stored image tile
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile (counted from the top of the map)
+	 * @return  The encoded image, or null if the tile does not exist
+	 */
+	public synchronized byte[] getTile(int zoom, int x, int y) throws IOException {
+		try {
+			flush();
+			setKey(selectStatement, zoom, x, y);
+			try (ResultSet result = selectStatement.executeQuery()) {
+				return result.next() ? result.getBytes(1) : null;
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not read tile archive: " + e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	public InputStream read(int zoom, int x, int y) throws IOException {
+		final byte[] data = getTile(zoom, x, y);
+		return data == null ? null : new ByteArrayInputStream(data);
+	}
+	
+	@Override
+	public synchronized void flush() throws IOException {
+		if (pendingTiles.isEmpty()) return;
+		
+		try {
+			insertStatement.executeBatch();
+			connection.commit();
+			pendingTiles.clear();
+		} catch (SQLException e) {
+			throw new IOException("Could not write tiles to archive: " + e.getMessage(), e);
+		}
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+			if (!readOnly) connection.commit();
+			connection.close();
+		} catch (SQLException e) {
+			throw new IOException("Could not close tile archive: " + e.getMessage(), e);
+		}
+	}
+	
+	private static long getKey(int zoom, int x, int y) {
+		return ((long) zoom << 58) | ((long) x << 29) | y;
+	}
+	
+	/**
+	 * Sets the key of a tile in a statement, flipping the Y coordinate to the MBTiles row
+	 */
+	private static void setKey(PreparedStatement statement, int zoom, int x, int y) throws SQLException {
+		statement.setInt(1, zoom);
+		statement.setInt(2, x);
+		statement.setInt(3, (1 << zoom) - 1 - y);
+	}
+}
@@ -0,0 +1,194 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps encoded image tiles in memory, up to a maximum number of bytes. When the cache is full, the least recently used
+ * tiles are moved to another tile storage (e.g. files in a temp directory), from which they are read back when needed.
+ */
+public final class TileCache implements TileSink {
+	
+	private final long maxSize;
+	private final TileSink spill;
+	
+	// Least recently used tiles first
+	private final LinkedHashMap<Long, byte[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+	private long size = 0;
+	
+	// Tiles that were evicted but are still being written to the spill storage
+	private final Map<Long, byte[]> spilling = new HashMap<>();
+	
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong spillHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong spilledCount = new AtomicLong();
+	
+	/**
+	 * Initialises the cache
+	 * @param  maxSize  The maximum number of bytes of tile data to keep in memory
+	 * @param  spill    The storage for tiles that don't fit in memory
+	 */
+	public TileCache(long maxSize, TileSink spill) {
+		this.maxSize = maxSize;
+		this.spill = spill;
+	}
+	
+	/**
+	 * Gets an encoded image tile, and counts whether it was found in memory, in the spill storage or not at all
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  The encoded image, or null if the tile is not in the cache
+	 */
+	public byte[] get(int zoom, int x, int y) throws IOException {
+		return get(zoom, x, y, true);
+	}
+	
+	/**
+	 * Gets an encoded image tile
+	 * @param  zoom   The zoom level
+	 * @param  x      The X coordinate of the tile
+	 * @param  y      The Y coordinate of the tile
+	 * @param  count  true to count the request in the hit and miss statistics
+	 * @return  The encoded image, or null if the tile is not in the cache
+	 */
+	public byte[] get(int zoom, int x, int y, boolean count) throws IOException {
+		final long key = getKey(zoom, x, y);
+		synchronized (this) {
+			final byte[] data = getFromMemory(key);
+			if (data != null) {
+				if (count) memoryHits.incrementAndGet();
+				return data;
+			}
+		}
+		
+		final InputStream input = spill.read(zoom, x, y);
+		if (input == null) {
+			if (count) misses.incrementAndGet();
+			return null;
+		}
+		
+		final byte[] data;
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+			data = output.toByteArray();
+		} finally {
+			input.close();
+		}
+		
+		// Tiles that are requested again are likely to be requested more often, so they move back into memory
+		if (count) spillHits.incrementAndGet();
+		put(key, data);
+		return data;
+	}
+	
+	@Override
+	public void prepare(int zoom, int tileCount) throws IOException {
+		spill.prepare(zoom, tileCount);
+	}
+	
+	@Override
+	public boolean contains(int zoom, int x, int y) throws IOException {
+		synchronized (this) {
+			if (getFromMemory(getKey(zoom, x, y)) != null) return true;
+		}
+		return spill.contains(zoom, x, y);
+	}
+	
+	@Override
+	public void write(int zoom, int x, int y, byte[] data, int length) throws IOException {
+		put(getKey(zoom, x, y), Arrays.copyOf(data, length));
+	}
+	
+	@Override
+	public InputStream read(int zoom, int x, int y) throws IOException {
+		synchronized (this) {
+			final byte[] data = getFromMemory(getKey(zoom, x, y));
+			if (data != null) return new ByteArrayInputStream(data);
+		}
+		return spill.read(zoom, x, y);
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		spill.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			tiles.clear();
+			size = 0;
+		}
+		spill.close();
+	}
+	
+	public long getMemoryHits() { return memoryHits.get(); }
+	public long getSpillHits() { return spillHits.get(); }
+	public long getMisses() { return misses.get(); }
+	public long getSpilledCount() { return spilledCount.get(); }
+	public synchronized int getTileCount() { return tiles.size(); }
+	public synchronized long getSize() { return size; }
+	public long getMaxSize() { return maxSize; }
+	
+	/**
+	 * Adds a tile to memory, and moves the least recently used tiles to the spill storage until the cache fits
+	 */
+	private void put(long key, byte[] data) throws IOException {
+		Map<Long, byte[]> evicted = new LinkedHashMap<>();
+		synchronized (this) {
+			final byte[] previous = tiles.put(key, data);
+			if (previous != null) size -= previous.length;
+			size += data.length;
+			
+			Iterator<Map.Entry<Long, byte[]>> iterator = tiles.entrySet().iterator();
+			while (size > maxSize && tiles.size() > 1 && iterator.hasNext()) {
+				final Map.Entry<Long, byte[]> entry = iterator.next();
+				if (entry.getKey() == key) continue;
+				
+				evicted.put(entry.getKey(), entry.getValue());
+				spilling.put(entry.getKey(), entry.getValue());
+				size -= entry.getValue().length;
+				iterator.remove();
+			}
+		}
+		
+		// Write the evicted tiles outside of the lock, they are still found in memory until they are written
+		for (Map.Entry<Long, byte[]> entry : evicted.entrySet()) {
+			final long evictedKey = entry.getKey();
+			try {
+				spill.write((int) (evictedKey >>> 58), (int) ((evictedKey >>> 29) & 0x1fffffff), (int) (evictedKey & 0x1fffffff),
+						entry.getValue(), entry.getValue().length);
+				spilledCount.incrementAndGet();
+			} finally {
+				synchronized (this) {
+					spilling.remove(evictedKey);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets a tile from memory, including tiles that are being moved to the spill storage
+	 */
+	private byte[] getFromMemory(long key) {
+		final byte[] data = tiles.get(key);
+		return data != null ? data : spilling.get(key);
+	}
+	
+	private static long getKey(int zoom, int x, int y) {
+		return ((long) zoom << 58) | ((long) x << 29) | y;
+	}
+}
@@ -0,0 +1,54 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+/**
+ * Builds the image tiles of a zoom level from the four tiles below it in the tile pyramid
+ */
+public final class TileDownsampler {
+	
+	private TileDownsampler() { }
+	
+	/**
+	 * Downsamples a child tile into one quadrant of its parent tile, averaging each 2x2 block of child pixels into one
+	 * parent pixel
+	 * @param  child      The pixel buffer of the child tile (ARGB, row-major), or null if the child tile does not exist
+	 * @param  parent     The pixel buffer of the parent tile (ARGB, row-major)
+	 * @param  tileSize   The width and height of both tiles
+	 * @param  quadrantX  0 if the child is on the left side of the parent, 1 if it is on the right side
+	 * @param  quadrantY  0 if the child is on the top side of the parent, 1 if it is on the bottom side
+	 */
+	public static void downsample(final int[] child, final int[] parent, final int tileSize, final int quadrantX, final int quadrantY) {
+		final int half = tileSize / 2;
+		
+		for (int y = 0; y < half; y++) {
+			int parentIndex = (quadrantY * half + y) * tileSize + quadrantX * half;
+			
+			if (child == null) {
+				for (int x = 0; x < half; x++) parent[parentIndex++] = 0;
+				continue;
+			}
+			
+			int childIndex = (y * 2) * tileSize;
+			
+			for (int x = 0; x < half; x++, childIndex += 2) {
+				parent[parentIndex++] = average(
+						child[childIndex],
+						child[childIndex + 1],
+						child[childIndex + tileSize],
+						child[childIndex + tileSize + 1]);
+			}
+		}
+	}
+	
+	/**
+	 * Averages four ARGB pixels, channel by channel
+	 * @return  The averaged pixel
+	 */
+	private static int average(final int a, final int b, final int c, final int d) {
+		final int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >> 2;
+		final int red = (((a >> 16) & 0xff) + ((b >> 16) & 0xff) + ((c >> 16) & 0xff) + ((d >> 16) & 0xff) + 2) >> 2;
+		final int green = (((a >> 8) & 0xff) + ((b >> 8) & 0xff) + ((c >> 8) & 0xff) + ((d >> 8) & 0xff) + 2) >> 2;
+		final int blue = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) >> 2;
+		
+		return (alpha << 24) | (red << 16) | (green << 8) | blue;
+	}
+}
@@ -0,0 +1,47 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.PropertiesManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the pixels of an image tile into an image file. An encoder keeps its buffers between tiles, so it must only
+ * be used by one thread at a time (each worker context has its own).
+ */
+public interface TileEncoder {
+	
+	/**
+	 * Encodes an image tile
+	 * @param  pixels  The pixel buffer of the image tile (non-premultiplied ARGB, row-major)
+	 * @param  size    The width and height of the image tile
+	 * @param  output  The stream to write the encoded image to
+	 */
+	void encode(int[] pixels, int size, OutputStream output) throws IOException;
+	
+	/**
+	 * Gets the approximate size of the buffers the encoder keeps between tiles
+	 * @return  The size in bytes
+	 */
+	long getBufferSize();
+	
+	/**
+	 * Releases the resources held by the encoder
+	 */
+	void dispose();
+	
+	/**
+	 * Creates the encoder selected in the properties
+	 * @param  properties  The properties containing the map generation settings
+	 * @return  The encoder
+	 */
+	static TileEncoder create(PropertiesManager properties) {
+		switch (properties.mapTileEncoder) {
+			case "imageio":
+				return new ImageIoTileEncoder(properties.mapTileSize);
+			
+			default:
+				return new PngTileEncoder(properties.mapTileCompression, PngTileEncoder.Filter.valueOf(properties.mapTileFilter.toUpperCase()));
+		}
+	}
+}
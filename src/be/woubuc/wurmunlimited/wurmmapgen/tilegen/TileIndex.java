@@ -0,0 +1,122 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.util.Arrays;
+
+/**
+ * Sorted in-memory index of Wurm tile positions (for example all bridge parts), that can be queried by region without
+ * going back to the database
+ */
+public final class TileIndex {
+	
+	private final int mapSize;
+	
+	// Sorted, unique positions (y * map size + x)
+	private final int[] positions;
+	
+	private TileIndex(int mapSize, int[] positions) {
+		this.mapSize = mapSize;
+		this.positions = positions;
+	}
+	
+	/**
+	 * Gets the number of tiles in the index
+	 * @return  The number of tiles
+	 */
+	public int size() {
+		return positions.length;
+	}
+	
+	/**
+	 * Checks if the index contains a tile
+	 * @param  x  The X coordinate of the tile
+	 * @param  y  The Y coordinate of the tile
+	 * @return  true if the tile is in the index
+	 */
+	public boolean contains(int x, int y) {
+		if (x < 0 || y < 0 || x >= mapSize || y >= mapSize) return false;
+		return Arrays.binarySearch(positions, y * mapSize + x) >= 0;
+	}
+	
+	/**
+	 * Gets all tiles inside a region
+	 * @param  offsetX  The X coordinate of the first tile in the region
+	 * @param  offsetY  The Y coordinate of the first tile in the region
+	 * @param  size     The width and height of the region
+	 * @return  The sorted positions of the tiles (y * map size + x)
+	 */
+	public int[] getRegion(int offsetX, int offsetY, int size) {
+		if (positions.length == 0) return positions;
+		
+		final int startX = Math.max(offsetX, 0);
+		final int endX = Math.min(offsetX + size, mapSize);
+		final int endY = Math.min(offsetY + size, mapSize);
+		if (startX >= endX) return new int[0];
+		
+		int[] region = new int[16];
+		int count = 0;
+		
+		for (int y = Math.max(offsetY, 0); y < endY; y++) {
+			final int rowEnd = y * mapSize + endX;
+			
+			int index = Arrays.binarySearch(positions, y * mapSize + startX);
+			if (index < 0) index = -index - 1;
+			
+			for (; index < positions.length && positions[index] < rowEnd; index++) {
+				if (count == region.length) region = Arrays.copyOf(region, count * 2);
+				region[count++] = positions[index];
+			}
+		}
+		
+		return Arrays.copyOf(region, count);
+	}
+	
+	/**
+	 * Collects tile positions and builds a sorted index from them
+	 */
+	public static final class Builder {
+		
+		private final int mapSize;
+		
+		private int[] positions = new int[1024];
+		private int count = 0;
+		
+		/**
+		 * Initialises an index builder
+		 * @param  mapSize  The size of the Wurm map
+		 */
+		public Builder(int mapSize) {
+			this.mapSize = mapSize;
+		}
+		
+		/**
+		 * Adds a tile to the index, tiles outside of the map are ignored
+		 * @param  x  The X coordinate of the tile
+		 * @param  y  The Y coordinate of the tile
+		 */
+		public void add(int x, int y) {
+			if (x < 0 || y < 0 || x >= mapSize || y >= mapSize) return;
+			
+			if (count == positions.length) positions = Arrays.copyOf(positions, count * 2);
+			positions[count++] = y * mapSize + x;
+		}
+		
+		/**
+		 * Builds the index
+		 * @return  The index
+		 */
+		public TileIndex build() {
+			int[] sorted = Arrays.copyOf(positions, count);
+			Arrays.sort(sorted);
+			
+			// Remove duplicates
+			int unique = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i == 0 || sorted[i] != sorted[unique - 1]) {
+					sorted[unique++] = sorted[i];
+				}
+			}
+			
+			return new TileIndex(mapSize, Arrays.copyOf(sorted, unique));
+		}
+	}
+}
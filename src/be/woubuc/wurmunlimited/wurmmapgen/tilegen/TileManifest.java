@@ -0,0 +1,106 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the fingerprints of the native image tiles between runs, so tiles whose part of the Wurm map did not change
+ * don't need to be rendered again
+ */
+public final class TileManifest {
+	
+	private static final int magicNumber = 0x574d4754; // "WMGT"
+	private static final int version = 1;
+	
+	private final String settings;
+	private final int tileCount;
+	
+	private final long[] previous;
+	private final long[] current;
+	
+	private boolean loaded = false;
+	
+	/**
+	 * Initialises an empty manifest
+	 * @param  settings   Description of the settings the tiles are rendered with, when the settings change all tiles
+	 *                    are considered changed
+	 * @param  tileCount  The number of native image tiles per side
+	 */
+	public TileManifest(String settings, int tileCount) {
+		this.settings = settings;
+		this.tileCount = tileCount;
+		this.previous = new long[tileCount * tileCount];
+		this.current = new long[tileCount * tileCount];
+	}
+	
+	/**
+	 * Loads the fingerprints of the previous run. If the file does not exist or was written with different settings,
+	 * the manifest stays empty and every tile will be seen as changed.
+	 * @param  path  The manifest file
+	 * @return  true if the previous fingerprints were loaded
+	 */
+	public boolean load(Path path) throws IOException {
+		if (!Files.isRegularFile(path)) return false;
+		
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (input.readInt() != magicNumber || input.readInt() != version) return false;
+			if (!settings.equals(input.readUTF()) || input.readInt() != tileCount) return false;
+			
+			for (int i = 0; i < previous.length; i++) {
+				previous[i] = input.readLong();
+			}
+		}
+		
+		System.arraycopy(previous, 0, current, 0, previous.length);
+		loaded = true;
+		return true;
+	}
+	
+	/**
+	 * Writes the current fingerprints to the manifest file
+	 * @param  path  The manifest file
+	 */
+	public void save(Path path) throws IOException {
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+			output.writeInt(magicNumber);
+			output.writeInt(version);
+			output.writeUTF(settings);
+			output.writeInt(tileCount);
+			
+			for (final long fingerprint : current) {
+				output.writeLong(fingerprint);
+			}
+		}
+		
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Checks if an image tile has the same fingerprint as in the previous run
+	 * @param  x            The X coordinate of the image tile
+	 * @param  y            The Y coordinate of the image tile
+	 * @param  fingerprint  The current fingerprint of the image tile
+	 * @return  true if the fingerprint did not change
+	 */
+	public boolean isUnchanged(int x, int y, long fingerprint) {
+		return loaded && previous[y * tileCount + x] == fingerprint;
+	}
+	
+	/**
+	 * Stores the fingerprint of a rendered image tile
+	 * @param  x            The X coordinate of the image tile
+	 * @param  y            The Y coordinate of the image tile
+	 * @param  fingerprint  The fingerprint of the image tile
+	 */
+	public void setFingerprint(int x, int y, long fingerprint) {
+		current[y * tileCount + x] = fingerprint;
+	}
+}
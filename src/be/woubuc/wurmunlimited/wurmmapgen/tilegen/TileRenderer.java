@@ -0,0 +1,183 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import be.woubuc.wurmunlimited.wurmmapgen.PropertiesManager;
+import com.wurmonline.mesh.Tiles;
+
+/**
+ * Renders the terrain of an image tile straight into an ARGB pixel buffer
+ */
+public final class TileRenderer {
+	
+	// Colour of the water overlay, premultiplied
+	private static final int waterColor = ArgbComposite.premultiply(210, 20, 80, 180);
+	
+	private final WurmMap map;
+	private final int mapSize;
+	private final int tileSize;
+	
+	// Two rows of encoded tiles per thread, for the row being rendered and the row after it (used for shading)
+	private final ThreadLocal<int[][]> rowBuffers;
+	
+	private final TerrainPalette palette;
+	private final boolean generateWater;
+	
+	/**
+	 * Initialises a renderer for the given map
+	 * @param  map         The Wurm map
+	 * @param  palette     The colour and shading lookup tables
+	 * @param  properties  The properties containing the map generation settings
+	 */
+	public TileRenderer(WurmMap map, TerrainPalette palette, PropertiesManager properties) {
+		this.map = map;
+		this.mapSize = map.getSize();
+		this.tileSize = properties.mapTileSize;
+		this.rowBuffers = ThreadLocal.withInitial(() -> new int[2][tileSize + 1]);
+		
+		this.palette = palette;
+		this.generateWater = properties.mapGenerateWater;
+	}
+	
+	/**
+	 * Renders the terrain of an image tile. Each pixel is composited (base colour, shading, water) and written once.
+	 * @param  offsetX  The X coordinate of the first Wurm tile in the image tile
+	 * @param  offsetY  The Y coordinate of the first Wurm tile in the image tile
+	 * @param  pixels   The pixel buffer of the image tile (tileSize x tileSize, non-premultiplied ARGB, row-major)
+	 */
+	public void render(final int offsetX, final int offsetY, final int[] pixels) {
+		render(offsetX, offsetY, pixels, 0, tileSize);
+	}
+	
+	/**
+	 * Renders the terrain of a band of pixel rows in an image tile
+	 * @param  offsetX   The X coordinate of the first Wurm tile in the image tile
+	 * @param  offsetY   The Y coordinate of the first Wurm tile in the image tile
+	 * @param  pixels    The pixel buffer of the image tile (tileSize x tileSize, non-premultiplied ARGB, row-major)
+	 * @param  firstRow  The first pixel row to render
+	 * @param  endRow    The pixel row after the last row to render
+	 */
+	public void render(final int offsetX, final int offsetY, final int[] pixels, final int firstRow, final int endRow) {
+		final int[][] rows = rowBuffers.get();
+		int[] row = rows[0];
+		int[] nextRow = rows[1];
+		
+		// Read one extra column for the shading of the last column, if the map has one
+		final int columns = Math.min(tileSize, mapSize - offsetX);
+		final int width = Math.min(tileSize + 1, mapSize - offsetX);
+		
+		map.readRow(offsetX, offsetY + firstRow, width, row, 0);
+		
+		for (int y = offsetY + firstRow; y < offsetY + endRow; y++) {
+			int pixelIndex = (y - offsetY) * tileSize;
+			
+			final boolean hasNextRow = y < (mapSize - 1);
+			if (hasNextRow) map.readRow(offsetX, y + 1, width, nextRow, 0);
+			
+			for (int i = 0; i < columns; i++, pixelIndex++) {
+				final int x = offsetX + i;
+				
+				// Load tile from Wurm map
+				final int tileEncoded = row[i];
+				final byte tileType = Tiles.decodeType(tileEncoded);
+				final short tileHeight = Tiles.decodeHeight(tileEncoded);
+				
+				int pixel = palette.getColor(tileType);
+				
+				if (palette.isShaded(tileType) && x < (mapSize - 1) && hasNextRow) {
+					final int heightDelta = tileHeight - Tiles.decodeHeight(nextRow[i + 1]);
+					
+					// Shade with black if the slope is towards the next tile (shadow side), or with white if the slope
+					// is away from the next tile
+					if (heightDelta > 0) {
+						pixel = ArgbComposite.srcOver(pixel, palette.getShadow(heightDelta));
+					} else {
+						pixel = ArgbComposite.srcOver(pixel, palette.getHighlight(-heightDelta));
+					}
+				}
+				
+				// Draw water
+				if (generateWater && tileHeight < 0) {
+					pixel = ArgbComposite.srcOver(pixel, waterColor);
+				}
+				
+				pixels[pixelIndex] = pixel;
+			}
+			
+			// The next row becomes the current row
+			final int[] previousRow = row;
+			row = nextRow;
+			nextRow = previousRow;
+		}
+	}
+	
+	/**
+	 * Paints overlay tiles in the pixel buffer of an image tile
+	 * @param  offsetX  The X coordinate of the first Wurm tile in the image tile
+	 * @param  offsetY  The Y coordinate of the first Wurm tile in the image tile
+	 * @param  pixels   The pixel buffer of the image tile
+	 * @param  overlay  The overlay tiles inside the image tile (see {@link TileIndex#getRegion})
+	 * @param  argb     The colour to paint (non-premultiplied ARGB)
+	 */
+	public void paint(final int offsetX, final int offsetY, final int[] pixels, final int[] overlay, final int argb) {
+		for (final int tile : overlay) {
+			paint(offsetX, offsetY, pixels, tile % mapSize, tile / mapSize, argb);
+		}
+	}
+	
+	/**
+	 * Paints a single Wurm tile in the pixel buffer of an image tile, ignoring tiles outside of the image tile
+	 * @param  offsetX  The X coordinate of the first Wurm tile in the image tile
+	 * @param  offsetY  The Y coordinate of the first Wurm tile in the image tile
+	 * @param  pixels   The pixel buffer of the image tile
+	 * @param  x        The X coordinate of the Wurm tile
+	 * @param  y        The Y coordinate of the Wurm tile
+	 * @param  argb     The colour to paint (non-premultiplied ARGB, see {@link TerrainPalette#getColor})
+	 */
+	public void paint(final int offsetX, final int offsetY, final int[] pixels, final int x, final int y, final int argb) {
+		if (x < offsetX || y < offsetY || x >= offsetX + tileSize || y >= offsetY + tileSize) return;
+		
+		final int pixelIndex = (y - offsetY) * tileSize + (x - offsetX);
+		pixels[pixelIndex] = ArgbComposite.srcOver(pixels[pixelIndex], ArgbComposite.premultiply(argb));
+	}
+	
+	/**
+	 * Calculates a fingerprint of everything an image tile is rendered from: the encoded Wurm tiles it covers (plus the
+	 * row and column after it, which are used for shading) and the overlay tiles painted on top of it
+	 * @param  offsetX   The X coordinate of the first Wurm tile in the image tile
+	 * @param  offsetY   The Y coordinate of the first Wurm tile in the image tile
+	 * @param  overlays  The overlay tiles inside the image tile, for each overlay (see {@link TileIndex#getRegion})
+	 * @return  The fingerprint
+	 */
+	public long fingerprint(final int offsetX, final int offsetY, final int[]... overlays) {
+		final int endX = Math.min(offsetX + tileSize + 1, mapSize);
+		final int endY = Math.min(offsetY + tileSize + 1, mapSize);
+		
+		final int[] row = rowBuffers.get()[0];
+		
+		long hash = 0x9e3779b97f4a7c15L;
+		for (int y = offsetY; y < endY; y++) {
+			map.readRow(offsetX, y, endX - offsetX, row, 0);
+			for (int i = 0; i < endX - offsetX; i++) {
+				hash = mix(hash, row[i]);
+			}
+		}
+		
+		for (final int[] overlay : overlays) {
+			hash = mix(hash, overlay.length);
+			for (final int tile : overlay) {
+				hash = mix(hash, tile);
+			}
+		}
+		
+		// Final avalanche, so similar inputs don't end up with similar fingerprints
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	private static long mix(final long hash, final int value) {
+		return Long.rotateLeft(hash ^ (value * 0x9e3779b97f4a7c15L), 31) * 0xbf58476d1ce4e5b9L;
+	}
+}
@@ -0,0 +1,213 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tile jobs of a zoom level on a work-stealing thread pool. The tiles are split into ranges recursively, so
+ * threads that run out of work can take over part of the remaining tiles of other threads.
+ */
+public final class TileScheduler {
+	
+	// Smallest number of pixel rows that is split off a tile into a separate task
+	private static final int minimumBandSize = 64;
+	
+	private final ForkJoinPool pool;
+	
+	private final AtomicInteger completedCount = new AtomicInteger();
+	private final AtomicInteger renderedCount = new AtomicInteger();
+	private final AtomicInteger skippedCount = new AtomicInteger();
+	
+	private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+	private volatile boolean cancelled = false;
+	
+	private int totalCount = 0;
+	private ForkJoinTask<?> task;
+	
+	/**
+	 * Initialises the thread pool
+	 * @param  threads  The number of threads to use
+	 */
+	public TileScheduler(int threads) {
+		this.pool = new ForkJoinPool(Math.max(threads, 1));
+	}
+	
+	/**
+	 * Starts running a job for every image tile in a zoom level
+	 * @param  tileCount  The number of image tiles per side
+	 * @param  job        The job to run for each tile
+	 */
+	public void start(int tileCount, TileJob job) {
+		if (task != null && !task.isDone()) throw new IllegalStateException("Previous tile jobs are still running");
+		
+		completedCount.set(0);
+		renderedCount.set(0);
+		skippedCount.set(0);
+		failures.clear();
+		cancelled = false;
+		
+		totalCount = tileCount * tileCount;
+		task = pool.submit(new TileRange(job, tileCount, 0, totalCount));
+	}
+	
+	/**
+	 * Waits for the running jobs to complete
+	 * @param  timeout  The maximum time to wait, in milliseconds
+	 * @return  true if all jobs are completed (or cancelled)
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		try {
+			task.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return false;
+		} catch (ExecutionException e) {
+			// Errors that escaped the jobs themselves (e.g. out of memory)
+			fail(e.getCause());
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the error of the last run, if any tile jobs failed. The first failure is the cause, the other failures are
+	 * added as suppressed exceptions.
+	 * @return  The error, or null if all jobs succeeded
+	 */
+	public IOException getFailure() {
+		if (failures.isEmpty()) return null;
+		
+		final Throwable first = failures.peek();
+		final IOException error = new IOException(failures.size() + " map tiles could not be generated: " + first.getMessage(), first);
+		for (Throwable failure : failures) {
+			if (failure != first) error.addSuppressed(failure);
+		}
+		return error;
+	}
+	
+	public int getTotalCount() { return totalCount; }
+	public int getCompletedCount() { return completedCount.get(); }
+	public int getRenderedCount() { return renderedCount.get(); }
+	public int getSkippedCount() { return skippedCount.get(); }
+	
+	/**
+	 * Stops the thread pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * Records a failed job and cancels all jobs that have not started yet
+	 * @param  failure  The error
+	 */
+	private void fail(Throwable failure) {
+		failures.add(failure);
+		cancelled = true;
+	}
+	
+	/**
+	 * Splits a tile into bands of pixel rows that can be processed by multiple threads, as long as other threads are
+	 * idle. When not called from a scheduler thread, all rows are processed in the calling thread.
+	 * @param  rows  The number of pixel rows in the tile
+	 * @param  job   The job to run for each band
+	 */
+	public static void splitRows(int rows, RowJob job) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			new RowBand(job, 0, rows).invoke();
+		} else {
+			job.run(0, rows);
+		}
+	}
+	
+	/**
+	 * A job that generates a single image tile, and returns false if the tile did not need to be generated
+	 */
+	@FunctionalInterface
+	public interface TileJob {
+		boolean run(int imageTileX, int imageTileY) throws Exception;
+	}
+	
+	/**
+	 * A job that processes a band of pixel rows in a tile
+	 */
+	@FunctionalInterface
+	public interface RowJob {
+		void run(int firstRow, int endRow);
+	}
+	
+	/**
+	 * A range of image tiles in a zoom level, tile i is at (i / tileCount, i % tileCount)
+	 */
+	@SuppressWarnings("serial")
+	private final class TileRange extends RecursiveAction {
+		
+		private final TileJob job;
+		private final int tileCount;
+		private final int start;
+		private final int end;
+		
+		private TileRange(TileJob job, int tileCount, int start, int end) {
+			this.job = job;
+			this.tileCount = tileCount;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (cancelled) return;
+			
+			if (end - start > 1) {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new TileRange(job, tileCount, start, middle), new TileRange(job, tileCount, middle, end));
+				return;
+			}
+			
+			try {
+				if (job.run(start / tileCount, start % tileCount)) {
+					renderedCount.incrementAndGet();
+				} else {
+					skippedCount.incrementAndGet();
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+			completedCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * A band of pixel rows in a tile, which splits itself in half while other threads have nothing to do
+	 */
+	@SuppressWarnings("serial")
+	private static final class RowBand extends RecursiveAction {
+		
+		private final RowJob job;
+		private final int start;
+		private final int end;
+		
+		private RowBand(RowJob job, int start, int end) {
+			this.job = job;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start >= minimumBandSize * 2 && getSurplusQueuedTaskCount() <= 0) {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new RowBand(job, start, middle), new RowBand(job, middle, end));
+				return;
+			}
+			
+			job.run(start, end);
+		}
+	}
+}
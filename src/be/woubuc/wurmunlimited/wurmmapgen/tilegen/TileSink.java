@@ -0,0 +1,55 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage for the encoded image tiles of the tile pyramid. Implementations must be safe to use from multiple threads.
+ */
+public interface TileSink {
+	
+	/**
+	 * Prepares the sink to receive the tiles of a zoom level
+	 * @param  zoom       The zoom level
+	 * @param  tileCount  The number of image tiles per side in the zoom level
+	 */
+	void prepare(int zoom, int tileCount) throws IOException;
+	
+	/**
+	 * Checks if an image tile exists
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  true if the tile exists
+	 */
+	boolean contains(int zoom, int x, int y) throws IOException;
+	
+	/**
+	 * Stores an image tile, replacing the existing tile
+	 * @param  zoom    The zoom level
+	 * @param  x       The X coordinate of the tile
+	 * @param  y       The Y coordinate of the tile
+	 * @param  data    The encoded image
+	 * @param  length  The number of bytes in the encoded image
+	 */
+	void write(int zoom, int x, int y, byte[] data, int length) throws IOException;
+	
+	/**
+	 * Opens a stored image tile
+	 * @param  zoom  The zoom level
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  The encoded image, or null if the tile does not exist
+	 */
+	InputStream read(int zoom, int x, int y) throws IOException;
+	
+	/**
+	 * Makes sure all tiles written so far are stored, so they can be read back
+	 */
+	void flush() throws IOException;
+	
+	/**
+	 * Flushes and closes the sink
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,144 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The buffers and image codecs used to generate one tile at a time. Contexts are borrowed from a pool for each tile
+ * and returned when the tile is written, so generating a tile doesn't allocate any large objects.
+ *
+ * A thread that waits for the row bands of its tile can pick up another tile in the meantime, and borrows another
+ * context for it. The number of contexts is therefore bounded by the number of pool threads times how deeply tiles
+ * are nested on a thread, not by the number of threads alone.
+ */
+public final class TileWorkerContext {
+	
+	private final int tileSize;
+	
+	private final int[] pixels;
+	private final int[] childPixels;
+	
+	private final TileEncoder encoder;
+	private final ImageReader reader;
+	private final ImageReadParam readParam;
+	private final EncodeBuffer outputBuffer;
+	
+	private BufferedImage readBuffer;
+	
+	/**
+	 * Initialises the buffers for the given tile size
+	 * @param  tileSize  The width and height of an image tile
+	 * @param  encoder   The encoder to write the image tiles with
+	 */
+	public TileWorkerContext(int tileSize, TileEncoder encoder) {
+		this.tileSize = tileSize;
+		
+		this.pixels = new int[tileSize * tileSize];
+		this.childPixels = new int[tileSize * tileSize];
+		
+		this.encoder = encoder;
+		this.reader = ImageIO.getImageReadersByFormatName("png").next();
+		this.readParam = reader.getDefaultReadParam();
+		this.outputBuffer = new EncodeBuffer(tileSize * tileSize);
+	}
+	
+	/**
+	 * Gets the pixel buffer of the image tile that is being generated (ARGB, row-major)
+	 * @return  The pixel buffer
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+	
+	/**
+	 * Reads an existing image tile into the child pixel buffer
+	 * @param  sink  The storage of the image tiles
+	 * @param  zoom  The zoom level of the tile
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 * @return  The child pixel buffer (ARGB, row-major)
+	 */
+	public int[] readChild(TileSink sink, int zoom, int x, int y) throws IOException {
+		final InputStream data = sink.read(zoom, x, y);
+		if (data == null) throw new FileNotFoundException("Image tile " + zoom + "/" + x + "/" + y + " does not exist");
+		
+		try (ImageInputStream input = new MemoryCacheImageInputStream(data)) {
+			reader.setInput(input, true, true);
+			
+			// Reuse the read buffer as long as the tiles are stored in the same format. Palette tiles each have their
+			// own colours, so only the colour model is swapped when just the palette differs.
+			final ImageTypeSpecifier type = reader.getImageTypes(0).next();
+			final SampleModel sampleModel = type.getSampleModel(tileSize, tileSize);
+			if (readBuffer == null || !sampleModel.equals(readBuffer.getSampleModel())) {
+				readBuffer = type.createBufferedImage(tileSize, tileSize);
+			} else if (!type.getColorModel().equals(readBuffer.getColorModel())) {
+				readBuffer = new BufferedImage(type.getColorModel(), readBuffer.getRaster(), false, null);
+			}
+			
+			readParam.setDestination(readBuffer);
+			reader.read(0, readParam);
+			reader.setInput(null);
+		} finally {
+			data.close();
+		}
+		
+		readBuffer.getRGB(0, 0, tileSize, tileSize, childPixels, 0, tileSize);
+		return childPixels;
+	}
+	
+	/**
+	 * Encodes the image tile and stores it
+	 * @param  sink  The storage of the image tiles
+	 * @param  zoom  The zoom level of the tile
+	 * @param  x     The X coordinate of the tile
+	 * @param  y     The Y coordinate of the tile
+	 */
+	public void write(TileSink sink, int zoom, int x, int y) throws IOException {
+		outputBuffer.reset();
+		encoder.encode(pixels, tileSize, outputBuffer);
+		sink.write(zoom, x, y, outputBuffer.array(), outputBuffer.size());
+	}
+	
+	/**
+	 * Gets the approximate size of the buffers held by this context, including those of its encoder
+	 * @return  The size in bytes
+	 */
+	public long getBufferSize() {
+		long size = (long) pixels.length * 4 + (long) childPixels.length * 4 + outputBuffer.array().length
+				+ encoder.getBufferSize();
+		if (readBuffer != null) size += (long) tileSize * tileSize * 4;
+		return size;
+	}
+	
+	/**
+	 * Releases the image codecs
+	 */
+	public void dispose() {
+		encoder.dispose();
+		reader.dispose();
+	}
+	
+	/**
+	 * Byte buffer that exposes its array, so encoded tiles don't need to be copied
+	 */
+	private static final class EncodeBuffer extends ByteArrayOutputStream {
+		
+		private EncodeBuffer(int size) {
+			super(size);
+		}
+		
+		private byte[] array() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package be.woubuc.wurmunlimited.wurmmapgen.tilegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only, memory-mapped view of a Wurm map file (e.g. top_layer.map). The file holds a 1024 byte header, followed
+ * by one big-endian encoded tile int per Wurm tile, row by row. Can be shared by any number of threads, since it never
+ * changes the position of the mapped buffers.
+ */
+public final class WurmMap {
+	
+	private static final int headerSize = 1024;
+	
+	// Offset of the size level in the header (after the magic number and the version)
+	private static final int sizeLevelOffset = 9;
+	
+	// Maximum size of a single mapping, files larger than this are mapped in multiple chunks of whole rows
+	private static final long maxChunkSize = 1L << 30;
+	
+	private final int size;
+	private final int rowsPerChunk;
+	private final IntBuffer[] chunks;
+	
+	private WurmMap(int size, int rowsPerChunk, IntBuffer[] chunks) {
+		this.size = size;
+		this.rowsPerChunk = rowsPerChunk;
+		this.chunks = chunks;
+	}
+	
+	/**
+	 * Maps a Wurm map file into memory
+	 * @param  path  The path of the map file
+	 * @return  The map
+	 * @throws  IOException  If the file could not be read, or is not a valid map file
+	 */
+	public static WurmMap open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long length = channel.size();
+			if (length < headerSize) throw new IOException("Not a Wurm map file: " + path);
+			
+			final ByteBuffer header = ByteBuffer.allocate(headerSize);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) throw new IOException("Could not read map header: " + path);
+			}
+			
+			final int sizeLevel = header.get(sizeLevelOffset);
+			if (sizeLevel < 1 || sizeLevel > 15) throw new IOException("Invalid map size level " + sizeLevel + ": " + path);
+			
+			final int size = 1 << sizeLevel;
+			final long rowSize = size * 4L;
+			if (length != headerSize + rowSize * size) {
+				throw new IOException("Map file has " + length + " bytes, expected " + (headerSize + rowSize * size) + ": " + path);
+			}
+			
+			final int rowsPerChunk = (int) Math.min(size, maxChunkSize / rowSize);
+			final IntBuffer[] chunks = new IntBuffer[(size + rowsPerChunk - 1) / rowsPerChunk];
+			for (int i = 0; i < chunks.length; i++) {
+				final int rows = Math.min(rowsPerChunk, size - i * rowsPerChunk);
+				
+				// The mapping stays valid after the channel is closed
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, headerSize + i * rowsPerChunk * rowSize, rows * rowSize).asIntBuffer();
+			}
+			
+			return new WurmMap(size, rowsPerChunk, chunks);
+		}
+	}
+	
+	/**
+	 * Gets the width and height of the map
+	 * @return  The number of Wurm tiles per side
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Gets a single encoded tile, see {@link com.wurmonline.mesh.Tiles} to decode it
+	 * @param  x  The X coordinate of the tile
+	 * @param  y  The Y coordinate of the tile
+	 * @return  The encoded tile
+	 */
+	public int getTile(int x, int y) {
+		return chunks[y / rowsPerChunk].get((y % rowsPerChunk) * size + x);
+	}
+	
+	/**
+	 * Copies a run of encoded tiles in one row of the map
+	 * @param  x            The X coordinate of the first tile
+	 * @param  y            The Y coordinate of the row
+	 * @param  count        The number of tiles to copy
+	 * @param  destination  The array to copy the tiles into
+	 * @param  offset       The index in the array of the first tile
+	 */
+	public void readRow(int x, int y, int count, int[] destination, int offset) {
+		if (x < 0 || y < 0 || count < 0 || x + count > size || y >= size) {
+			throw new IndexOutOfBoundsException("Row " + y + " [" + x + ", " + (x + count) + ") is outside of the map");
+		}
+		
+		// Read through a duplicate, so concurrent reads don't share a position
+		final IntBuffer view = chunks[y / rowsPerChunk].duplicate();
+		view.position((y % rowsPerChunk) * size + x);
+		view.get(destination, offset, count);
+	}
+	
+	/**
+	 * Copies a block of encoded tiles, row by row
+	 * @param  x            The X coordinate of the first tile
+	 * @param  y            The Y coordinate of the first tile
+	 * @param  width        The width of the block
+	 * @param  height       The height of the block
+	 * @param  destination  The array to copy the tiles into (width x height, row-major)
+	 */
+	public void readBlock(int x, int y, int width, int height, int[] destination) {
+		for (int row = 0; row < height; row++) {
+			readRow(x, y + row, width, destination, row * width);
+		}
+	}
+	
+	/**
+	 * Releases the map. The mapped memory itself is released by the garbage collector, since Java has no way to
+	 * unmap a buffer explicitly.
+	 */
+	public void close() {
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = null;
+		}
+	}
+}
@@ -13,6 +13,7 @@ WurmMapGen.gui = new Vue({
 		loaded: false,
 
 		searchQuery: '',
+		searchDataLoaded: false,
 
 		playerCount: 0,
 
@@ -42,6 +43,14 @@ WurmMapGen.gui = new Vue({
 				return [];
 			}
 
+			// If the data is split into chunks, the full layer data is only loaded when it's needed for searching
+			if (!this.searchDataLoaded) {
+				WurmMapGen.loadLayerData().then(function() {
+					WurmMapGen.gui.searchDataLoaded = true;
+				});
+				return [];
+			}
+
 			var escapeHtml = WurmMapGen.util.escapeHtml;
 
 			var query = this.searchQuery.toLowerCase();
@@ -246,6 +255,8 @@ WurmMapGen.gui = new Vue({
 				this.playerCount = WurmMapGen.players.length;
 			}
 
+			this.searchDataLoaded = !(WurmMapGen.config.dataChunkSize > 0);
+
 			this.showStructures = WurmMapGen.util.getConfig('structureBorders', true);
 			this.showPortals = WurmMapGen.util.getConfig('portalMarkers', true);
 
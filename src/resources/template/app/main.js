@@ -11,8 +11,8 @@ WurmMapGen.structures = null;
 WurmMapGen.portals = null;
 
 // Helper function to fetch a dataset from a JSON file
-function fetchData(key, path) {
-	return fetch('data/' + path)
+function fetchData(key, path, options) {
+	return fetch('data/' + path, options)
 		.then(function(response) { return response.json() })
 		.then(function(responseData) {
 			WurmMapGen[key] = responseData[key];
@@ -25,35 +25,145 @@ var windowIsFocused = true;
 window.onblur = function(){ windowIsFocused = false; }
 window.onfocus = function(){ windowIsFocused = true; }
 
+// Version of the loaded online players, the realtime feed only sends the changes since this version. The versions
+// start over when WurmMapGen restarts, so they are only valid together with the epoch of the feed.
+var playersEpoch = 0;
+var playersVersion = 0;
+
+// Helper function to get the tag of the loaded version, to request only the changes since then
+function playersTag() {
+	return playersEpoch + '-' + playersVersion;
+}
+
+// Helper function to apply a list of online players, or the changes since the loaded version
+function applyPlayers(data) {
+	if (data.players) {
+		WurmMapGen.players = data.players;
+		playersEpoch = data.epoch;
+	} else if (data.epoch === playersEpoch && data.from === playersVersion) {
+		var players = {};
+		var i;
+		for (i = 0; i < WurmMapGen.players.length; i++) players[WurmMapGen.players[i].id] = WurmMapGen.players[i];
+		for (i = 0; i < data.changed.length; i++) players[data.changed[i].id] = data.changed[i];
+		for (i = 0; i < data.removed.length; i++) delete players[data.removed[i]];
+
+		WurmMapGen.players = Object.keys(players).map(function(id) { return players[id]; });
+	} else {
+		// The changes are not based on the loaded version
+		return false;
+	}
+
+	playersVersion = data.version;
+	return true;
+}
+
+// Helper function to load the online players, from the realtime feed if WurmMapGen runs one
+function fetchPlayers() {
+	var feed = WurmMapGen.config.realtimeFeed;
+	if (feed !== 'json' && feed !== 'events') {
+		return fetchData('players', 'players.php');
+	}
+
+	var url = 'data/players.json' + (playersVersion > 0 ? '?since=' + playersTag() : '');
+	return fetch(url, {cache: 'no-cache'})
+		.then(function(response) { return response.json() })
+		.then(function(data) {
+			if (applyPlayers(data)) return Promise.resolve();
+
+			playersEpoch = 0;
+			playersVersion = 0;
+			return fetchPlayers();
+		});
+}
+
+// Helper function to show the loaded online players on the map
+function showPlayers() {
+	WurmMapGen.map.updatePlayerMarkers();
+	WurmMapGen.gui.playerCount = WurmMapGen.players.length;
+}
+
 // Helper function to set timeout for refreshing realtime data
 function setRealtimeTimer() {
-	var time = 30000;
+	// The realtime feed is cheap to check, players.php makes a request to the game server every time
+	var time = (WurmMapGen.config.realtimeFeed === 'json' ? WurmMapGen.config.realtimeInterval * 1000 : 30000);
 
-	// If the window is not focused, use 60s refresh timeout instead of 30s
+	// If the window is not focused, refresh half as often
 	if (!windowIsFocused) {
-		time = 60000;
+		time *= 2;
 	}
 
 	WurmMapGen.realtimeTimer = setTimeout(function() {
-		fetchData('players', 'players.php').then(function() {
-			WurmMapGen.map.updatePlayerMarkers();
-			WurmMapGen.gui.playerCount = WurmMapGen.players.length;
-			setRealtimeTimer();
-		});
+		fetchPlayers().then(showPlayers).catch(function(err) {
+			console.warn('Could not load online players', err);
+		}).then(setRealtimeTimer);
 	}, time);
 }
 
-// Prepare promises to load data
+// Helper function to receive the changes to the online players as they happen
+function listenForPlayers() {
+	var source = new EventSource('data/players/events' + (playersVersion > 0 ? '?since=' + playersTag() : ''));
+	source.addEventListener('players', function(event) {
+		if (applyPlayers(JSON.parse(event.data))) {
+			showPlayers();
+			return;
+		}
+
+		// Some changes were missed or the feed restarted, load all players again
+		playersEpoch = 0;
+		playersVersion = 0;
+		fetchPlayers().then(showPlayers);
+	});
+}
+
+// The full datasets of the layers, loaded at the start or, if the data is split into chunks, when it's first searched
+var layerData = null;
+WurmMapGen.loadLayerData = function() {
+	if (!layerData) {
+		layerData = Promise.all([
+			fetchData('villages', WurmMapGen.util.versionedUrl('villages.json', 'villages')),
+			fetchData('guardtowers', WurmMapGen.util.versionedUrl('guardtowers.json', 'guardtowers')),
+			fetchData('structures', WurmMapGen.util.versionedUrl('structures.json', 'structures')),
+			fetchData('portals', WurmMapGen.util.versionedUrl('portals.json', 'portals'))
+		]);
+	}
+	return layerData;
+};
+
+// Helper function to fetch the chunk index of a layer, a layer without index has no chunks
+function fetchChunkIndex(layer, enabled) {
+	WurmMapGen.map.chunkIndexes[layer] = {chunks: []};
+	if (!enabled) return Promise.resolve();
+
+	return fetch(WurmMapGen.util.versionedUrl('data/chunks/' + layer + '/index.json', layer))
+		.then(function(response) { return response.json() })
+		.then(function(index) { WurmMapGen.map.chunkIndexes[layer] = index; })
+		.catch(function(err) { console.warn('No chunk index for ' + layer); });
+}
+
+// Prepare promises to load data, the config decides how the layers are loaded
 var promises = [
-	fetchData('config', 'config.json'),
-	fetchData('villages', 'villages.json'),
-	fetchData('guardtowers', 'guardtowers.json'),
-	fetchData('structures', 'structures.json'),
-	fetchData('portals', 'portals.json')
+	// The config contains the versions of the other data files, so it always has to be checked for changes
+	fetchData('config', 'config.json', {cache: 'no-cache'}).then(function() {
+		var config = WurmMapGen.config;
+		if (!(config.dataChunkSize > 0)) return WurmMapGen.loadLayerData();
+
+		// Only load the chunk indexes, the map loads the chunks in view
+		return Promise.all([
+			fetchChunkIndex('villages', config.showDeeds),
+			fetchChunkIndex('guardtowers', config.showGuardTowers),
+			fetchChunkIndex('structures', config.showStructures),
+			fetchChunkIndex('portals', config.showPortals)
+		]);
+	})
 ];
 
+// The config decides where the online players are loaded from
 if (document.body.getAttribute('data-realtime') === 'true') {
-	promises.push(fetchData('players', 'players.php'));
+	// The map can be shown without the online players, e.g. while the realtime feed can't reach the game server yet
+	promises.push(promises[0].then(fetchPlayers).catch(function(err) {
+		console.warn('Could not load online players', err);
+		WurmMapGen.players = [];
+	}));
 }
 
 // Start loading
@@ -75,7 +185,11 @@ Promise.all(promises)
 
 	// Set interval to refresh realtime data
 	if (document.body.getAttribute('data-realtime') === 'true') {
-		setRealtimeTimer();
+		if (WurmMapGen.config.realtimeFeed === 'events' && window.EventSource) {
+			listenForPlayers();
+		} else {
+			setRealtimeTimer();
+		}
 	}
 });
 
@@ -6,6 +6,10 @@ WurmMapGen.map = {
 	playerMarkers: {},
 	playerMarkerIds: [],
 
+	// Indexes of the chunked layer data, by layer name, and the chunks that are currently on the map
+	chunkIndexes: {},
+	loadedChunks: {},
+
 	/**
 	 * Initialises and creates the map interface
 	 */
@@ -34,10 +38,10 @@ WurmMapGen.map = {
 		map.fitBounds(mapBounds);
         map.setZoom(Math.ceil((config.mapMinZoom + config.mapMaxZoom) / 2) - 1);
 
-		var wurmMapLayer = L.tileLayer('images/{x}-{y}.png', {
+		var wurmMapLayer = L.tileLayer(config.mapTileUrl || 'images/{z}/{x}/{y}.png', {
 			tileSize: config.mapTileSize,
-			maxNativeZoom: config.nativeZoom,
-			minNativeZoom: config.nativeZoom,
+			maxNativeZoom: config.maxNativeZoom,
+			minNativeZoom: config.minNativeZoom,
 			minZoom: config.mapMinZoom,
 			maxZoom: config.mapMaxZoom,
 			maxBounds: mapBounds,
@@ -70,144 +74,266 @@ WurmMapGen.map = {
 		var portalMarkers = WurmMapGen.map.layers.portalMarkers = L.layerGroup();
 		var playerMarkers = WurmMapGen.map.layers.playerMarkers = L.layerGroup();
 
-		// Add villages
-		for (var i = 0; i < WurmMapGen.villages.length; i++) {
-			var village = WurmMapGen.villages[i];
-
-			// Create polygon based on village border data
-			var border = L.polygon([
-				xy(village.borders[0], village.borders[1]),
-				xy(village.borders[2], village.borders[1]),
-				xy(village.borders[2], village.borders[3]),
-				xy(village.borders[0], village.borders[3])
-			], {
-				color: (village.permanent ? 'orange' : 'white'),
-				fillOpacity: 0,
-				weight: 1
-			});
+		// Add the layer data, or only the chunks of layer data in view if the data is split into chunks
+		if (config.dataChunkSize > 0) {
+			map.on('moveend', WurmMapGen.map.updateChunks);
+			WurmMapGen.map.updateChunks();
+		} else {
+			WurmMapGen.villages.forEach(WurmMapGen.map.addVillage);
+			WurmMapGen.guardtowers.forEach(WurmMapGen.map.addGuardTower);
+			WurmMapGen.structures.forEach(WurmMapGen.map.addStructure);
+			WurmMapGen.portals.forEach(WurmMapGen.map.addPortal);
+		}
 
-			var marker = L.marker(xy(village.x, village.y),
-				{icon: WurmMapGen.markers.getMarker('village', village)}
-			);
+		// Add players
+		WurmMapGen.map.updatePlayerMarkers();
 
-			var citizenNamesString = ' (';
-			if (village.citizens >= 10){
-				 citizenNamesString += village.citizenNames.slice(0, 10).join(', ') + '...';
-			}
-			else {
-				citizenNamesString += village.citizenNames.join(', ');
-			}
-			citizenNamesString += ')';
-			
-			if (village.citizens == 0){
-				citizenNamesString = '';
-			}
-			
-			marker.bindPopup([
-				'<div align="center"><b>' + escapeHtml(village.name) + '</b>',
-				'<i>' + escapeHtml(village.motto) + '</i></div>',
-				'<b>Mayor:</b> ' + escapeHtml(village.mayor),
-				'<b>Citizens:</b> ' + escapeHtml(village.citizens)
-				+ escapeHtml(citizenNamesString)
-				].join('<br>'));
-
-			// Make sure text labels always show on top of other markers
-			if (WurmMapGen.config.markerType === 3) {
-				marker.setZIndexOffset(1000);
-			}
+		// Add layers to map
+		villageBorders.addTo(map);
+		villageMarkers.addTo(map);
+		guardtowerBorders.addTo(map);
+		guardtowerMarkers.addTo(map);
+		structureBorders.addTo(map);
+		portalMarkers.addTo(map);
+		playerMarkers.addTo(map);
+	},
+
+	/**
+	 * Adds a village to the map
+	 * @param  {Object}  village  The village data
+	 * @returns  {Array}  The added layers, as [layer group, layer] pairs
+	 */
+	addVillage: function(village) {
+		var xy = WurmMapGen.util.xy;
+		var escapeHtml = WurmMapGen.util.escapeHtml;
+
+		// Create polygon based on village border data
+		var border = L.polygon([
+			xy(village.borders[0], village.borders[1]),
+			xy(village.borders[2], village.borders[1]),
+			xy(village.borders[2], village.borders[3]),
+			xy(village.borders[0], village.borders[3])
+		], {
+			color: (village.permanent ? 'orange' : 'white'),
+			fillOpacity: 0,
+			weight: 1
+		});
 
-			// Open the marker popup when the border is clicked
-			border.on('click', WurmMapGen.map.openMarker.bind(null, marker));
+		var marker = L.marker(xy(village.x, village.y),
+			{icon: WurmMapGen.markers.getMarker('village', village)}
+		);
 
-			villageBorders.addLayer(border);
-			villageMarkers.addLayer(marker);
+		var citizenNamesString = ' (';
+		if (village.citizens >= 10){
+			 citizenNamesString += village.citizenNames.slice(0, 10).join(', ') + '...';
+		}
+		else {
+			citizenNamesString += village.citizenNames.join(', ');
+		}
+		citizenNamesString += ')';
+		
+		if (village.citizens == 0){
+			citizenNamesString = '';
+		}
+		
+		marker.bindPopup([
+			'<div align="center"><b>' + escapeHtml(village.name) + '</b>',
+			'<i>' + escapeHtml(village.motto) + '</i></div>',
+			'<b>Mayor:</b> ' + escapeHtml(village.mayor),
+			'<b>Citizens:</b> ' + escapeHtml(village.citizens)
+			+ escapeHtml(citizenNamesString)
+			].join('<br>'));
+
+		// Make sure text labels always show on top of other markers
+		if (WurmMapGen.config.markerType === 3) {
+			marker.setZIndexOffset(1000);
 		}
 
-		// Add guard towers
-		for (var i = 0; i < WurmMapGen.guardtowers.length; i++) {
-			var tower = WurmMapGen.guardtowers[i];
-
-			// Create polygon based on guard tower border data
-			var border = L.polygon([
-				xy(tower.borders[0], tower.borders[1]),
-				xy(tower.borders[2], tower.borders[1]),
-				xy(tower.borders[2], tower.borders[3]),
-				xy(tower.borders[0], tower.borders[3])
-			], {
-				color: 'red',
-				fillOpacity: 0.1,
-				weight: 1
-			});
+		// Open the marker popup when the border is clicked
+		border.on('click', WurmMapGen.map.openMarker.bind(null, marker));
 
-			var marker = L.marker(xy(tower.x, tower.y),
-				{icon: WurmMapGen.markers.getMarker('guardtower')}
-			);
+		WurmMapGen.map.layers.villageBorders.addLayer(border);
+		WurmMapGen.map.layers.villageMarkers.addLayer(marker);
 
-			marker.bindPopup([
-				'<div align="center"><b>Guard Tower</b>',
-				'<i>Created by ' + escapeHtml(tower.creator) + '</i></div>',
-				'<b>QL:</b> ' + escapeHtml(tower.ql),
-				'<b>DMG:</b> ' + escapeHtml(tower.dmg)
-				].join('<br>'));
+		return [[WurmMapGen.map.layers.villageBorders, border], [WurmMapGen.map.layers.villageMarkers, marker]];
+	},
 
-			// Open the marker popup when the border is clicked
-			border.on('click', WurmMapGen.map.openMarker.bind(null, marker));
+	/**
+	 * Adds a guard tower to the map
+	 * @param  {Object}  tower  The guard tower data
+	 * @returns  {Array}  The added layers, as [layer group, layer] pairs
+	 */
+	addGuardTower: function(tower) {
+		var xy = WurmMapGen.util.xy;
+		var escapeHtml = WurmMapGen.util.escapeHtml;
 
-			guardtowerBorders.addLayer(border);
-			guardtowerMarkers.addLayer(marker);
-		}
+		// Create polygon based on guard tower border data
+		var border = L.polygon([
+			xy(tower.borders[0], tower.borders[1]),
+			xy(tower.borders[2], tower.borders[1]),
+			xy(tower.borders[2], tower.borders[3]),
+			xy(tower.borders[0], tower.borders[3])
+		], {
+			color: 'red',
+			fillOpacity: 0.1,
+			weight: 1
+		});
 
-		// Add structures
-		for (var i = 0; i < WurmMapGen.structures.length; i++) {
-			var structure = WurmMapGen.structures[i];
-
-			// Create polygon based on guard tower border data
-			var border = L.polygon([
-				xy(structure.borders[0], structure.borders[1]),
-				xy(structure.borders[2], structure.borders[1]),
-				xy(structure.borders[2], structure.borders[3]),
-				xy(structure.borders[0], structure.borders[3])
-			], {
-				color: 'blue',
-				fillOpacity: 0.1,
-				weight: 1
-			});
+		var marker = L.marker(xy(tower.x, tower.y),
+			{icon: WurmMapGen.markers.getMarker('guardtower')}
+		);
 
-			border.bindPopup([
-				'<div align="center"><b>' + escapeHtml(structure.name) + '</b>',
-				'<i>Created by ' + escapeHtml(structure.creator) + '</i></div>'
-				].join('<br>'));
+		marker.bindPopup([
+			'<div align="center"><b>Guard Tower</b>',
+			'<i>Created by ' + escapeHtml(tower.creator) + '</i></div>',
+			'<b>QL:</b> ' + escapeHtml(tower.ql),
+			'<b>DMG:</b> ' + escapeHtml(tower.dmg)
+			].join('<br>'));
 
-			structureBorders.addLayer(border);
-		}
+		// Open the marker popup when the border is clicked
+		border.on('click', WurmMapGen.map.openMarker.bind(null, marker));
 
-		// Add portals
-		for (var i = 0; i < WurmMapGen.portals.length; i++) {
-			var portal = WurmMapGen.portals[i];
+		WurmMapGen.map.layers.guardtowerBorders.addLayer(border);
+		WurmMapGen.map.layers.guardtowerMarkers.addLayer(marker);
 
-			var marker = L.marker(xy(portal.x, portal.y),
-				{icon: WurmMapGen.markers.getMarker('portal')}
-			);
+		return [[WurmMapGen.map.layers.guardtowerBorders, border], [WurmMapGen.map.layers.guardtowerMarkers, marker]];
+	},
 
-			marker.bindPopup([
-				'<div align="center"><b>' + escapeHtml(portal.name) + '</b>',
-				'<i>Portal</i></div>'
-				].join('<br>'));
+	/**
+	 * Adds a structure to the map
+	 * @param  {Object}  structure  The structure data
+	 * @returns  {Array}  The added layers, as [layer group, layer] pairs
+	 */
+	addStructure: function(structure) {
+		var xy = WurmMapGen.util.xy;
+		var escapeHtml = WurmMapGen.util.escapeHtml;
+
+		// Create polygon based on structure border data
+		var border = L.polygon([
+			xy(structure.borders[0], structure.borders[1]),
+			xy(structure.borders[2], structure.borders[1]),
+			xy(structure.borders[2], structure.borders[3]),
+			xy(structure.borders[0], structure.borders[3])
+		], {
+			color: 'blue',
+			fillOpacity: 0.1,
+			weight: 1
+		});
+
+		border.bindPopup([
+			'<div align="center"><b>' + escapeHtml(structure.name) + '</b>',
+			'<i>Created by ' + escapeHtml(structure.creator) + '</i></div>'
+			].join('<br>'));
+
+		WurmMapGen.map.layers.structureBorders.addLayer(border);
+
+		return [[WurmMapGen.map.layers.structureBorders, border]];
+	},
+
+	/**
+	 * Adds a portal to the map
+	 * @param  {Object}  portal  The portal data
+	 * @returns  {Array}  The added layers, as [layer group, layer] pairs
+	 */
+	addPortal: function(portal) {
+		var escapeHtml = WurmMapGen.util.escapeHtml;
 
-			portalMarkers.addLayer(marker);
+		var marker = L.marker(WurmMapGen.util.xy(portal.x, portal.y),
+			{icon: WurmMapGen.markers.getMarker('portal')}
+		);
+
+		marker.bindPopup([
+			'<div align="center"><b>' + escapeHtml(portal.name) + '</b>',
+			'<i>Portal</i></div>'
+			].join('<br>'));
+
+		WurmMapGen.map.layers.portalMarkers.addLayer(marker);
+
+		return [[WurmMapGen.map.layers.portalMarkers, marker]];
+	},
+
+	/**
+	 * Loads the chunks of layer data that are in view (or close to it), and removes the chunks that are out of view.
+	 * Called whenever the map is moved.
+	 */
+	updateChunks: function() {
+		var multiplier = WurmMapGen.config.xyMulitiplier;
+		var bounds = WurmMapGen.map.map.getBounds().pad(0.5);
+
+		// The view in Wurm tile coordinates: min x, min y, max x, max y
+		var view = [
+			bounds.getWest() * multiplier,
+			-bounds.getNorth() * multiplier,
+			bounds.getEast() * multiplier,
+			-bounds.getSouth() * multiplier
+		];
+
+		for (var layer in WurmMapGen.map.chunkIndexes) {
+			var chunks = WurmMapGen.map.chunkIndexes[layer].chunks;
+
+			for (var i = 0; i < chunks.length; i++) {
+				var chunk = chunks[i];
+				var key = layer + '/' + chunk.x + '-' + chunk.y;
+
+				var inView = chunk.bounds[0] <= view[2] && chunk.bounds[2] >= view[0]
+					&& chunk.bounds[1] <= view[3] && chunk.bounds[3] >= view[1];
+
+				if (inView && !WurmMapGen.map.loadedChunks[key]) {
+					WurmMapGen.map.loadChunk(layer, key);
+				} else if (!inView && WurmMapGen.map.loadedChunks[key]) {
+					WurmMapGen.map.unloadChunk(key);
+				}
+			}
 		}
+	},
 
-		// Add players
-		WurmMapGen.map.updatePlayerMarkers();
+	/**
+	 * Loads a chunk of layer data and adds its entities to the map
+	 * @param  {string}  layer  The name of the layer (e.g. 'villages')
+	 * @param  {string}  key    The key of the chunk (layer/x-y)
+	 */
+	loadChunk: function(layer, key) {
+		var addEntity = {
+			villages: WurmMapGen.map.addVillage,
+			guardtowers: WurmMapGen.map.addGuardTower,
+			structures: WurmMapGen.map.addStructure,
+			portals: WurmMapGen.map.addPortal
+		}[layer];
+
+		var chunk = WurmMapGen.map.loadedChunks[key] = {layers: []};
+
+		fetch(WurmMapGen.util.versionedUrl('data/chunks/' + key + '.json', layer))
+			.then(function(response) { return response.json() })
+			.then(function(entities) {
+				// Don't add the entities if the chunk went out of view while it was loading
+				if (WurmMapGen.map.loadedChunks[key] !== chunk) { return; }
+
+				for (var i = 0; i < entities.length; i++) {
+					Array.prototype.push.apply(chunk.layers, addEntity(entities[i]));
+				}
+			})
+			.catch(function(err) {
+				console.error('Could not load chunk ' + key);
+				console.error(err);
+
+				// Try again when the map is moved
+				if (WurmMapGen.map.loadedChunks[key] === chunk) {
+					delete WurmMapGen.map.loadedChunks[key];
+				}
+			});
+	},
 
-		// Add layers to map
-		villageBorders.addTo(map);
-		villageMarkers.addTo(map);
-		guardtowerBorders.addTo(map);
-		guardtowerMarkers.addTo(map);
-		structureBorders.addTo(map);
-		portalMarkers.addTo(map);
-		playerMarkers.addTo(map);
+	/**
+	 * Removes the entities of a chunk from the map
+	 * @param  {string}  key  The key of the chunk (layer/x-y)
+	 */
+	unloadChunk: function(key) {
+		var chunk = WurmMapGen.map.loadedChunks[key];
+		delete WurmMapGen.map.loadedChunks[key];
+
+		for (var i = 0; i < chunk.layers.length; i++) {
+			chunk.layers[i][0].removeLayer(chunk.layers[i][1]);
+		}
 	},
 
 	/**
@@ -262,7 +388,7 @@ WurmMapGen.map = {
 			var playerId = idsToRemove[i];
 
 			delete WurmMapGen.map.playerMarkers[playerId];
-			WurmMapGen.map.playerMarkerIds.splice(WurmMapGen.map.playerMarkerIds.indexOf[playerId], 1);
+			WurmMapGen.map.playerMarkerIds.splice(WurmMapGen.map.playerMarkerIds.indexOf(playerId), 1);
 		}
 	},
 
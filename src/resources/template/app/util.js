@@ -16,6 +16,18 @@ WurmMapGen.util = {
 		return unescaped.replace(/(<)/g, '&lt;').replace(/(>)/g, '&gt');
 	},
 
+	/**
+	 * Adds the version of a layer to the URL of one of its data files, so the browser only downloads the file again
+	 * when the layer changed
+	 * @param  {string}  url    The URL of the data file
+	 * @param  {string}  layer  The name of the layer (e.g. 'villages')
+	 * @returns  {string}  The versioned URL
+	 */
+	versionedUrl: function(url, layer) {
+		var versions = WurmMapGen.config.versions || {};
+		return url + '?v=' + (versions[layer] || 0);
+	},
+
 	/**
 	 * Gets a boolean value from a settings cookie
 	 * @param  {string}   key           The key of the setting
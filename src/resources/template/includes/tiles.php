@@ -0,0 +1,48 @@
+<?php
+
+// Serves map tiles from the tile archive (images/tiles.mbtiles), used when mapOutputMode is set to archive
+// Request: tiles.php?z={zoom}&x={x}&y={y}
+
+$zoom = isset($_GET['z']) ? intval($_GET['z']) : -1;
+$x = isset($_GET['x']) ? intval($_GET['x']) : -1;
+$y = isset($_GET['y']) ? intval($_GET['y']) : -1;
+
+if ($zoom < 0 || $zoom > 30 || $x < 0 || $y < 0 || $x >= (1 << $zoom) || $y >= (1 << $zoom)) {
+	http_response_code(400);
+	exit;
+}
+
+try {
+	$db = new PDO('sqlite:' . __DIR__ . '/../images/tiles.mbtiles', null, null, array(
+		PDO::ATTR_ERRMODE => PDO::ERRMODE_EXCEPTION
+	));
+
+	// Rows in the archive are counted from the bottom of the map
+	$statement = $db->prepare('SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?');
+	$statement->execute(array($zoom, $x, (1 << $zoom) - 1 - $y));
+	$tile = $statement->fetchColumn();
+} catch (PDOException $e) {
+	http_response_code(500);
+	exit;
+}
+
+if ($tile === false) {
+	http_response_code(404);
+	exit;
+}
+
+// Let browsers revalidate tiles, since they change when the map is generated again
+$etag = '"' . md5($tile) . '"';
+header('Cache-Control: public, max-age=300');
+header('ETag: ' . $etag);
+
+if (isset($_SERVER['HTTP_IF_NONE_MATCH']) && trim($_SERVER['HTTP_IF_NONE_MATCH']) === $etag) {
+	http_response_code(304);
+	exit;
+}
+
+header('Content-Type: image/png');
+header('Content-Length: ' . strlen($tile));
+echo $tile;
+
+?>